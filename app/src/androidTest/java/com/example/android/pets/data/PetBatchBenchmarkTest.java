@@ -0,0 +1,184 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetBatch;
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares inserting, reading and deleting pets with one ContentResolver call per pet against
+ * METHOD_BATCH calls of a thousand pets each, at 100 and 10k pets, and logs the numbers. Every
+ * pet it inserts is deleted again.
+ *
+ * The test runs in the app process, where the resolver calls the provider directly, so the
+ * numbers leave out the binder and parceling cost a client in another process pays on every
+ * call, the per call path only looks better here than it is there.
+ */
+public class PetBatchBenchmarkTest {
+
+    //the sizes the two paths are compared at
+    private static final int[] SIZES = {100, 10000};
+    //operations sent per batch call, keeps each call far from the binder transaction limit
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String LOG_TAG = PetBatchBenchmarkTest.class.getSimpleName();
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        mContentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    /**
+     * Runs the comparison, one log line per size and operation. A batch inserts its pets in one
+     * transaction, so at the larger size it has to beat a commit per pet.
+     */
+    @Test
+    public void batchCallsBeatOneCallPerPet() {
+        long petsBefore = countPets();
+        long[] perCall = null;
+        long[] batched = null;
+        for (int size : SIZES) {
+            perCall = runPerCall(size);
+            batched = runBatched(size);
+            String[] operations = {"insert", "get", "delete"};
+            for (int i = 0; i < operations.length; i++) {
+                Log.i(LOG_TAG, String.format(Locale.US, "%d %s: %.1f ms per call, %.1f ms batched (%.1fx)",
+                        size, operations[i], perCall[i] / 1e6, batched[i] / 1e6,
+                        (double) perCall[i] / Math.max(1, batched[i])));
+            }
+        }
+
+        assertEquals("the benchmark pets were not all deleted", petsBefore, countPets());
+        assertTrue("batched inserts took " + batched[0] + " ns, one call per pet " + perCall[0] + " ns",
+                batched[0] < perCall[0]);
+    }
+
+    @Test
+    public void batchKeepsMissingValues() {
+        PetBatch batch = new PetBatch()
+                .insert(new PetRecord().setName("Stray").setBreed("Tabby").setGender(PetEntry.GENDER_FEMALE))
+                .insert(new PetRecord().setName("Unweighed").setBreed("Beagle"));
+        long[] ids = callBatch(batch);
+
+        Bundle answer = mContentResolver.call(PetEntry.CONTENT_URI, PetsContract.METHOD_BATCH, null,
+                batch.clear().get(ids[0]).get(ids[1]).delete(ids[0]).delete(ids[1]).toExtras());
+        boolean[] hasGenders = answer.getBooleanArray(PetsContract.KEY_BATCH_HAS_GENDERS);
+        boolean[] hasWeights = answer.getBooleanArray(PetsContract.KEY_BATCH_HAS_WEIGHTS);
+        assertTrue(hasGenders[0]);
+        assertEquals(PetEntry.GENDER_FEMALE, answer.getIntArray(PetsContract.KEY_BATCH_GENDERS)[0]);
+        assertFalse("a missing weight comes back missing, not 0", hasWeights[0]);
+        assertFalse(hasGenders[1]);
+        assertFalse(hasWeights[1]);
+    }
+
+    //the nanoseconds it took to insert, get and delete size pets with one call per pet
+    private long[] runPerCall(int size) {
+        long[] ids = new long[size];
+        long[] nanos = new long[3];
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_NAME, "Benchmark " + i);
+            values.put(PetEntry.COLUMN_PET_BREED, "Tabby");
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, i % 20);
+            Uri uri = mContentResolver.insert(PetEntry.CONTENT_URI, values);
+            ids[i] = uri == null ? -1 : ContentUris.parseId(uri);
+        }
+        nanos[0] = System.nanoTime() - startTime;
+
+        String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+        startTime = System.nanoTime();
+        for (long id : ids) {
+            Cursor cursor = mContentResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    projection, null, null, null);
+            if (cursor != null) {
+                cursor.moveToFirst();
+                cursor.close();
+            }
+        }
+        nanos[1] = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (long id : ids) {
+            mContentResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id), null, null);
+        }
+        nanos[2] = System.nanoTime() - startTime;
+        return nanos;
+    }
+
+    //the nanoseconds it took to insert, get and delete size pets with batch calls
+    private long[] runBatched(int size) {
+        long[] ids = new long[size];
+        long[] nanos = new long[3];
+        PetRecord pet = new PetRecord();
+
+        long startTime = System.nanoTime();
+        for (int start = 0; start < size; start += BATCH_SIZE) {
+            PetBatch batch = new PetBatch();
+            for (int i = start; i < Math.min(size, start + BATCH_SIZE); i++) {
+                batch.insert(pet.set("Benchmark " + i, "Tabby", PetEntry.GENDER_UNKNOWN, i % 20));
+            }
+            long[] results = callBatch(batch);
+            assertEquals(batch.size(), results.length);
+            System.arraycopy(results, 0, ids, start, results.length);
+        }
+        nanos[0] = System.nanoTime() - startTime;
+        nanos[1] = runBatched(ids, PetBatch.OPERATION_GET);
+        nanos[2] = runBatched(ids, PetBatch.OPERATION_DELETE);
+        return nanos;
+    }
+
+    //the nanoseconds it took to get or delete the pets with batch calls
+    private long runBatched(long[] ids, int operation) {
+        long startTime = System.nanoTime();
+        for (int start = 0; start < ids.length; start += BATCH_SIZE) {
+            PetBatch batch = new PetBatch();
+            for (int i = start; i < Math.min(ids.length, start + BATCH_SIZE); i++) {
+                if (operation == PetBatch.OPERATION_GET) {
+                    batch.get(ids[i]);
+                } else {
+                    batch.delete(ids[i]);
+                }
+            }
+            callBatch(batch);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private long[] callBatch(PetBatch batch) {
+        Bundle answer = mContentResolver.call(PetEntry.CONTENT_URI, PetsContract.METHOD_BATCH, null,
+                batch.toExtras());
+        return answer.getLongArray(PetsContract.KEY_BATCH_RESULTS);
+    }
+
+    private long countPets() {
+        Cursor cursor = mContentResolver.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
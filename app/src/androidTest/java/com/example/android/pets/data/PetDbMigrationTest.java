@@ -0,0 +1,139 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetSearchEntry;
+import com.example.android.pets.data.PetsContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades populated databases of every older version through {@link PetDbHelper} itself, with
+ * the device SQLite and its LOCALIZED collation, and checks that no pet is lost, that the search
+ * index and the statistics cover every pet and that the upgraded schema is the one a new
+ * database gets.
+ */
+public class PetDbMigrationTest {
+
+    private static final String DATABASE_NAME = "migration-test.db";
+    private static final String NEW_DATABASE_NAME = "migration-test-new.db";
+    private static final int PETS = 500;
+
+    private Context mContext;
+    private final List<PetDbHelper> mHelpers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        for (PetDbHelper helper : mHelpers) {
+            helper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeFromEveryVersionKeepsEveryPet() {
+        List<String> newSchema = schema(open(NEW_DATABASE_NAME));
+
+        for (int version = 1; version < PetDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(DATABASE_NAME);
+            SQLiteDatabase old = mContext.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+            List<String> before;
+            try {
+                PetDbHelper.createSchema(old, version);
+                old.setVersion(version);
+                insertPets(old, PETS);
+                before = readPets(old);
+            } finally {
+                old.close();
+            }
+
+            //onUpgrade() of the helper, as the app runs it
+            SQLiteDatabase db = open(DATABASE_NAME);
+            String message = "upgrade from version " + version;
+            assertEquals(message, PetDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(message, before, readPets(db));
+            assertEquals(message, PETS, DatabaseUtils.queryNumEntries(db, PetSearchEntry.TABLE_NAME));
+            assertEquals(message, PETS, DatabaseUtils.longForQuery(db, "SELECT " + PetStatsEntry.COLUMN_COUNT +
+                    " FROM " + PetStatsEntry.TABLE_NAME + " WHERE " + PetStatsEntry.COLUMN_DIMENSION + "='" +
+                    PetStatsEntry.DIMENSION_ALL + "'", null));
+            assertEquals(message, newSchema, schema(db));
+            mHelpers.remove(mHelpers.size() - 1).close();
+        }
+    }
+
+    private SQLiteDatabase open(String name) {
+        PetDbHelper helper = new PetDbHelper(mContext, name, null, PetDbHelper.DATABASE_VERSION);
+        mHelpers.add(helper);
+        return helper.getWritableDatabase();
+    }
+
+    //generated pets, with some weights and breeds left empty like the old editor allowed
+    private static void insertPets(SQLiteDatabase db, int count) {
+        PetDatasetGenerator generator = new PetDatasetGenerator(PetDatasetGenerator.DEFAULT_SEED);
+        PetRecord pet = new PetRecord();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                generator.next(pet);
+                db.execSQL("INSERT INTO " + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + "," +
+                        PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_GENDER + "," +
+                        PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?,?,?,?)", new Object[] {pet.getName(),
+                        i % 97 == 0 ? null : pet.getBreed(), pet.getGender(), i % 50 == 0 ? null : pet.getWeight()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    //every pet as one string of its version 1 columns, in _id order
+    private static List<String> readPets(SQLiteDatabase db) {
+        List<String> pets = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + PetEntry._ID + "," + PetEntry.COLUMN_PET_NAME + "," +
+                PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT +
+                " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID, null);
+        try {
+            while (cursor.moveToNext()) {
+                pets.add(cursor.getLong(0) + "|" + cursor.getString(1) + "|" + cursor.getString(2) + "|" +
+                        cursor.getString(3) + "|" + cursor.getString(4));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    //the statements of every table, index and trigger, by name
+    private static List<String> schema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type,name,sql FROM sqlite_master ORDER BY type,name", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": " + cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return schema;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Opens databases through {@link PetDbHelper} on the device and checks the connection settings it
+ * applies: write ahead logging, the synchronous level and the automatic checkpoint, on a new
+ * database and again when an existing one is opened. Also checks a reader is not held up by an
+ * open write transaction, which is what the write ahead log is for.
+ */
+public class PetDbSettingsTest {
+
+    private static final String DATABASE_NAME = "settings-test.db";
+    //value of the synchronous pragma for NORMAL
+    private static final long SYNCHRONOUS_NORMAL = 1;
+    private static final long READ_TIMEOUT_SECONDS = 5;
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+        }
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void newDatabaseHasTheSettings() {
+        assertSettings(open());
+    }
+
+    @Test
+    public void reopenedDatabaseHasTheSettings() {
+        open();
+        mHelper.close();
+        assertSettings(open());
+    }
+
+    @Test
+    public void readerDoesNotWaitForTheWriter() throws Exception {
+        final SQLiteDatabase db = open();
+        db.execSQL("INSERT INTO " + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ") VALUES ('Toto')");
+
+        db.beginTransaction();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            db.execSQL("INSERT INTO " + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + ") VALUES ('Rex')");
+            //another thread reads on a connection of the pool, without the write ahead log it
+            //would wait for the transaction to end, which only happens after the read
+            Future<Long> count = reader.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME);
+                }
+            });
+            //the reader sees the last commit, not the open transaction
+            assertEquals(1L, (long) count.get(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            reader.shutdownNow();
+            db.endTransaction();
+        }
+    }
+
+    private SQLiteDatabase open() {
+        mHelper = new PetDbHelper(mContext, DATABASE_NAME, null, PetDbHelper.DATABASE_VERSION);
+        return mHelper.getWritableDatabase();
+    }
+
+    private static void assertSettings(SQLiteDatabase db) {
+        assertEquals("wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+        //the other two are settings of the connection, a transaction keeps the queries on the
+        //primary connection the helper sets them on instead of one of the readers of the pool
+        db.beginTransaction();
+        try {
+            assertEquals(SYNCHRONOUS_NORMAL, pragma(db, "synchronous"));
+            assertEquals(PetDbHelper.WAL_AUTOCHECKPOINT_PAGES, pragma(db, "wal_autocheckpoint"));
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetFilter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Explains the pets query of every combination of the {@link PetFilter} criteria and checks it
+ * reads an index of one of its criteria instead of scanning the table.
+ */
+@RunWith(Parameterized.class)
+public class PetFilterQueryPlanTest {
+
+    //the ways the weight criterion can be set
+    private static final int WEIGHT_NONE = 0;
+    private static final int WEIGHT_MIN = 1;
+    private static final int WEIGHT_MAX = 2;
+    private static final int WEIGHT_RANGE = 3;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> filters() {
+        List<Object[]> filters = new ArrayList<>();
+        for (int combination = 1; combination < 2 * 4 * 2 * 2; combination++) {
+            boolean gender = (combination & 1) != 0;
+            int weight = (combination >> 1) & 3;
+            boolean breed = (combination & 8) != 0;
+            boolean name = (combination & 16) != 0;
+
+            PetFilter filter = new PetFilter();
+            StringBuilder description = new StringBuilder();
+            Set<String> indexes = new HashSet<>();
+            if (gender) {
+                filter.gender(PetEntry.GENDER_FEMALE);
+                description.append(" gender");
+                indexes.add("pets_gender_weight_idx");
+            }
+            if (weight == WEIGHT_MIN || weight == WEIGHT_RANGE) {
+                filter.minWeight(5);
+                description.append(" min weight");
+            }
+            if (weight == WEIGHT_MAX || weight == WEIGHT_RANGE) {
+                filter.maxWeight(20);
+                description.append(" max weight");
+            }
+            if (breed) {
+                filter.breedPrefix("Lab");
+                description.append(" breed prefix");
+                indexes.add("pets_breed_weight_idx");
+            }
+            if (name) {
+                filter.namePrefix("Be");
+                description.append(" name prefix");
+                indexes.add("pets_name_idx");
+            }
+            if (indexes.isEmpty()) {
+                //a weight range on its own
+                indexes.add("pets_weight_sort_idx");
+            }
+            filters.add(new Object[] {description.toString().trim(), filter,
+                    Collections.unmodifiableSet(indexes)});
+        }
+        return filters;
+    }
+
+    private final PetFilter mFilter;
+    private final Set<String> mIndexes;
+    private SQLiteDatabase mDatabase;
+
+    public PetFilterQueryPlanTest(String description, PetFilter filter, Set<String> indexes) {
+        mFilter = filter;
+        mIndexes = indexes;
+    }
+
+    @Before
+    public void openDatabase() {
+        mDatabase = PetDbHelper.getInstance(InstrumentationRegistry.getTargetContext())
+                .getReadableDatabase();
+    }
+
+    @Test
+    public void filterReadsAnIndexOfItsCriteria() {
+        assertReadsIndex(PetEntry.CONTENT_URI);
+    }
+
+    @Test
+    public void filteredPageReadsAnIndexOfItsCriteria() {
+        assertReadsIndex(PetEntry.buildPageUri(50, 1000));
+    }
+
+    private void assertReadsIndex(Uri uri) {
+        String plan = QueryPlans.explain(mDatabase, PetProvider.buildPetsQuery(uri, null,
+                mFilter.getSelection(), mFilter.getSelectionArgs(), null));
+        Set<String> used = QueryPlans.indexes(plan);
+        used.retainAll(mIndexes);
+        assertFalse("expected one of " + mIndexes + " in\n" + plan, used.isEmpty());
+    }
+}
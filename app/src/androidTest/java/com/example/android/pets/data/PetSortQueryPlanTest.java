@@ -0,0 +1,83 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static com.example.android.pets.data.PetsContract.SORT_BREED;
+import static com.example.android.pets.data.PetsContract.SORT_ID;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_NEWEST;
+import static com.example.android.pets.data.PetsContract.SORT_WEIGHT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Explains the first and the following pages of every sort order and checks no page sorts the
+ * table: the name, breed and weight orders read their sort index, with the LOCALIZED collation
+ * of the device for the names, and the _id orders read the table itself.
+ */
+@RunWith(Parameterized.class)
+public class PetSortQueryPlanTest {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Parameterized.Parameters(name = "{0} {1}")
+    public static List<Object[]> pages() {
+        Object[][] sorts = {
+                {SORT_ID, null, null},
+                {SORT_NEWEST, null, null},
+                {SORT_NAME, "Max", "pets_name_sort_idx"},
+                {SORT_BREED, "Labrador", "pets_breed_sort_idx"},
+                {SORT_WEIGHT, "12", "pets_weight_sort_idx"}};
+        List<Object[]> pages = new ArrayList<>();
+        for (Object[] sort : sorts) {
+            pages.add(new Object[] {sort[0], "first page",
+                    PetEntry.buildPageUri(PAGE_SIZE, (String) sort[0], null, 0), sort[2]});
+            pages.add(new Object[] {sort[0], "next page",
+                    PetEntry.buildPageUri(PAGE_SIZE, (String) sort[0], (String) sort[1], 1000), sort[2]});
+            if (sort[1] != null) {
+                //after a pet without a value for the sort column
+                pages.add(new Object[] {sort[0], "next page after a null",
+                        PetEntry.buildPageUri(PAGE_SIZE, (String) sort[0], null, 1000), sort[2]});
+            }
+        }
+        return pages;
+    }
+
+    private final Uri mUri;
+    private final String mIndex;
+    private SQLiteDatabase mDatabase;
+
+    public PetSortQueryPlanTest(String sort, String page, Uri uri, String index) {
+        mUri = uri;
+        mIndex = index;
+    }
+
+    @Before
+    public void openDatabase() {
+        mDatabase = PetDbHelper.getInstance(InstrumentationRegistry.getTargetContext())
+                .getReadableDatabase();
+    }
+
+    @Test
+    public void pageReadsItsOrderFromTheIndex() {
+        String plan = QueryPlans.explain(mDatabase, PetProvider.buildPetsQuery(mUri, null, null, null, null));
+        assertFalse("the page sorts rows\n" + plan, QueryPlans.sorts(plan));
+        Set<String> expected = mIndex == null
+                ? Collections.<String>emptySet() : Collections.singleton(mIndex);
+        assertEquals(plan, expected, QueryPlans.indexes(plan));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the query plans of the provider queries from the device SQLite, so the tests check the
+ * plans the real collations and the real planner give.
+ */
+final class QueryPlans {
+
+    //the index named in a plan line, a search or a scan
+    private static final Pattern INDEX = Pattern.compile("USING (?:COVERING )?INDEX (\\w+)");
+
+    private QueryPlans() {
+    }
+
+    /** The detail column of EXPLAIN QUERY PLAN, one line per step */
+    static String explain(SQLiteDatabase database, PetProvider.PetsQuery query) {
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + query.mSql, query.mArgs);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+
+    /** The indexes a plan reads */
+    static Set<String> indexes(String plan) {
+        Set<String> indexes = new LinkedHashSet<>();
+        Matcher matcher = INDEX.matcher(plan);
+        while (matcher.find()) {
+            indexes.add(matcher.group(1));
+        }
+        return indexes;
+    }
+
+    /** True when a step of the plan sorts rows instead of reading them in order */
+    static boolean sorts(String plan) {
+        return plan.contains("TEMP B-TREE");
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.android.pets.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetRecord;
+import com.example.android.pets.data.PetSyncChange;
+import com.example.android.pets.data.PetsContract.PetChangeEntry;
+import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetSyncEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Syncs the pets of the app database with a {@link LocalRegistryServer} over HTTP, checking a
+ * sync cut short resumes without sending or losing anything and that concurrent changes of one
+ * pet end up with the same winner on both sides.
+ */
+public class PetSyncEndToEndTest {
+
+    //the origin of the changes another branch makes
+    private static final String OTHER_BRANCH = "other-branch";
+    //more than two batches
+    private static final int PETS = 2 * PetSyncEngine.BATCH_SIZE + 200;
+
+    private Context mContext;
+    private SQLiteDatabase mDatabase;
+    private PetProvider mProvider;
+    private LocalRegistryServer mServer;
+    private RegistryTransport mTransport;
+
+    @Before
+    public void setUp() throws IOException {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDatabase = PetDbHelper.getInstance(mContext).getWritableDatabase();
+        mProvider = PetProvider.getLocalProvider(mContext);
+        //a new registry knows nothing, so the branch starts over: no pets, no sync state and
+        //the push side of the change log registered again on the first sync
+        mDatabase.delete(PetChangeEntry.CONSUMERS_TABLE_NAME, PetChangeEntry.COLUMN_CONSUMER_NAME + "=?",
+                new String[] {"registry_sync"});
+        mDatabase.delete(PetSyncEntry.TABLE_NAME, null, null);
+        mDatabase.delete(PetSyncEntry.STATE_TABLE_NAME, null, null);
+        mContext.getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
+        mServer = new LocalRegistryServer();
+        mTransport = new HttpRegistryTransport(mServer.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void syncPushesOnlyWhatChanged() throws IOException {
+        insertPets(PETS);
+
+        PetSyncEngine.Result first = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals(PETS, first.getPushed());
+        assertEquals(PETS, first.getAccepted());
+        assertEquals(PETS, mServer.getPetCount());
+
+        //nothing changed, the next sync is one empty pull
+        PetSyncEngine.Result second = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals(0, second.getPushed());
+        assertEquals(1, second.getRoundTrips());
+    }
+
+    @Test
+    public void interruptedPushResumes() throws IOException {
+        insertPets(PETS);
+
+        try {
+            new PetSyncEngine(mContext, new FailingTransport(mTransport, 1)).sync();
+            fail("the second push should have failed");
+        } catch (IOException e) {
+            //expected, the first batch made it
+        }
+        assertEquals(PetSyncEngine.BATCH_SIZE, mServer.getPetCount());
+
+        PetSyncEngine.Result resumed = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals(PETS - PetSyncEngine.BATCH_SIZE, resumed.getPushed());
+        assertEquals(PETS, mServer.getPetCount());
+    }
+
+    @Test
+    public void interruptedPullResumes() throws IOException {
+        //another branch adds pets the registry hands out in batches
+        for (int i = 0; i < PETS; i++) {
+            pushFromOtherBranch(new PetSyncChange("other-" + i, "Pet " + i, "Beagle", PetEntry.GENDER_MALE,
+                    10, false, 1000 + i, OTHER_BRANCH, 0));
+        }
+
+        try {
+            //the empty push is skipped, so the first post is a pull
+            new PetSyncEngine(mContext, new FailingTransport(mTransport, 1)).sync();
+            fail("the second pull should have failed");
+        } catch (IOException e) {
+            //expected, the first batch is applied with its cursor
+        }
+        assertEquals(PetSyncEngine.BATCH_SIZE, countPets());
+
+        PetSyncEngine.Result resumed = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals(PETS - PetSyncEngine.BATCH_SIZE, resumed.getPulled());
+        assertEquals(PETS, countPets());
+        //the pulled pets are not pushed back
+        assertEquals(0, new PetSyncEngine(mContext, mTransport).sync().getPushed());
+    }
+
+    @Test
+    public void newerRemoteChangeWins() throws IOException {
+        long id = mProvider.insertPet(new PetRecord("Rex", "Boxer", PetEntry.GENDER_MALE, 30));
+        new PetSyncEngine(mContext, mTransport).sync();
+
+        //both sides change the pet, the other branch later
+        mProvider.updatePet(id, new PetRecord("Rex here", "Boxer", PetEntry.GENDER_MALE, 31));
+        pushFromOtherBranch(new PetSyncChange(globalId(id), "Rex there", "Boxer", PetEntry.GENDER_MALE,
+                32, false, System.currentTimeMillis() + 60000, OTHER_BRANCH, 0));
+
+        PetSyncEngine.Result result = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals("the registry keeps the newer change", 0, result.getAccepted());
+        assertEquals(1, result.getApplied());
+        assertEquals("Rex there", petName(id));
+    }
+
+    @Test
+    public void newerLocalChangeWins() throws IOException, InterruptedException {
+        long id = mProvider.insertPet(new PetRecord("Rex", "Boxer", PetEntry.GENDER_MALE, 30));
+        new PetSyncEngine(mContext, mTransport).sync();
+
+        //the other branch changes the pet first, this branch right after
+        pushFromOtherBranch(new PetSyncChange(globalId(id), "Rex there", "Boxer", PetEntry.GENDER_MALE,
+                32, false, changedAt(id) + 1, OTHER_BRANCH, 0));
+        Thread.sleep(10);
+        mProvider.updatePet(id, new PetRecord("Rex here", "Boxer", PetEntry.GENDER_MALE, 31));
+
+        PetSyncEngine.Result result = new PetSyncEngine(mContext, mTransport).sync();
+        assertEquals(1, result.getAccepted());
+        assertEquals("the older pulled change is skipped", 0, result.getApplied());
+        assertEquals("Rex here", petName(id));
+    }
+
+    @Test
+    public void missingValuesStayMissing() throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Stray");
+        values.put(PetEntry.COLUMN_PET_BREED, "Tabby");
+        mContext.getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        pushFromOtherBranch(new PetSyncChange("other-unweighed", "Unweighed", "Beagle", null, null, false,
+                System.currentTimeMillis(), OTHER_BRANCH, 0));
+
+        new PetSyncEngine(mContext, mTransport).sync();
+
+        //pushed without a gender and a weight, as the other branch pulls it
+        SyncCodec.PullAnswer pull = SyncCodec.decodePullAnswer(mTransport.post(RegistryTransport.PATH_PULL,
+                SyncCodec.encodePull(OTHER_BRANCH, 0, PetSyncEngine.BATCH_SIZE)));
+        assertEquals(1, pull.mChanges.size());
+        assertNull(pull.mChanges.get(0).getGender());
+        assertNull(pull.mChanges.get(0).getWeight());
+        //pulled without them too
+        assertEquals(1, DatabaseUtils.queryNumEntries(mDatabase, PetEntry.TABLE_NAME,
+                PetEntry.COLUMN_PET_NAME + "='Unweighed' AND " + PetEntry.COLUMN_PET_GENDER + " IS NULL AND " +
+                        PetEntry.COLUMN_PET_WEIGHT + " IS NULL"));
+    }
+
+    private void insertPets(int count) {
+        PetRecord pet = new PetRecord();
+        for (int i = 0; i < count; i++) {
+            mProvider.insertPet(pet.set("Pet " + i, "Tabby", PetEntry.GENDER_FEMALE, 4));
+        }
+    }
+
+    private void pushFromOtherBranch(PetSyncChange change) throws IOException {
+        mTransport.post(RegistryTransport.PATH_PUSH,
+                SyncCodec.encodePush(OTHER_BRANCH, Collections.singletonList(change)));
+    }
+
+    private int countPets() {
+        return (int) DatabaseUtils.queryNumEntries(mDatabase, PetEntry.TABLE_NAME,
+                PetEntry.COLUMN_PET_DELETED + "=0");
+    }
+
+    private String globalId(long petId) {
+        return DatabaseUtils.stringForQuery(mDatabase, "SELECT " + PetSyncEntry.COLUMN_GLOBAL_ID +
+                " FROM " + PetSyncEntry.TABLE_NAME + " WHERE " + PetSyncEntry.COLUMN_PET_ID + "=?",
+                new String[] {String.valueOf(petId)});
+    }
+
+    //the version the branch last synced of the pet
+    private long changedAt(long petId) {
+        return DatabaseUtils.longForQuery(mDatabase, "SELECT " + PetSyncEntry.COLUMN_CHANGED_AT +
+                " FROM " + PetSyncEntry.TABLE_NAME + " WHERE " + PetSyncEntry.COLUMN_PET_ID + "=?",
+                new String[] {String.valueOf(petId)});
+    }
+
+    private String petName(long petId) {
+        Cursor cursor = mContext.getContentResolver().query(PetEntry.CONTENT_URI,
+                new String[] {PetEntry.COLUMN_PET_NAME}, PetEntry._ID + "=?",
+                new String[] {String.valueOf(petId)}, null);
+        try {
+            //a pulled change that wins over a local delete makes a new pet, this one must stay
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Passes the given number of requests on, then fails like a dropped connection.
+     */
+    private static final class FailingTransport implements RegistryTransport {
+
+        private final RegistryTransport mTransport;
+        private int mRequestsLeft;
+
+        FailingTransport(RegistryTransport transport, int requests) {
+            mTransport = transport;
+            mRequestsLeft = requests;
+        }
+
+        @Override
+        public byte[] post(String path, byte[] body) throws IOException {
+            if (mRequestsLeft-- <= 0) {
+                throw new IOException("connection dropped");
+            }
+            return mTransport.post(path, body);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.android.pets.sync;
+
+import java.io.IOException;
+
+/**
+ * The registry the debug menu syncs with: a {@link LocalRegistryServer} started on first use
+ * and kept for the life of the process. Release builds have their own DebugRegistry without a
+ * stand-in server.
+ */
+public final class DebugRegistry {
+
+    private static LocalRegistryServer sServer;
+
+    private DebugRegistry() {
+    }
+
+    //the transport to the stand-in registry, starting it on first use
+    public static synchronized RegistryTransport getTransport() throws IOException {
+        if (sServer == null) {
+            sServer = new LocalRegistryServer();
+        }
+        return new HttpRegistryTransport(sServer.getBaseUrl());
+    }
+
+    //the number of pets the stand-in registry knows, 0 before the first sync
+    public static synchronized int getPetCount() {
+        return sServer == null ? 0 : sServer.getPetCount();
+    }
+}
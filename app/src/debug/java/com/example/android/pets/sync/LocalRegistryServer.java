@@ -0,0 +1,217 @@
+package com.example.android.pets.sync;
+
+import android.util.Log;
+
+import com.example.android.pets.data.PetSyncChange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A stand-in for the shelter registry, serving the sync protocol over HTTP on the loopback
+ * interface of this process, so the whole sync runs end to end without a network. It keeps the
+ * latest version of every pet in memory, resolves conflicts like the registry does (the newer
+ * version wins, see {@link PetSyncChange}) and counts requests and bytes so a sync can be
+ * checked to cost what its changes cost.
+ */
+public class LocalRegistryServer implements Closeable {
+
+    private static final String LOG_TAG = LocalRegistryServer.class.getSimpleName();
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+
+    //the latest change of every pet by registry sequence, and the sequence of every pet
+    private final TreeMap<Long, PetSyncChange> mChanges = new TreeMap<>();
+    private final HashMap<String, Long> mSequences = new HashMap<>();
+    private long mLastSequence;
+
+    private int mRequestCount;
+    private long mBytesReceived;
+    private long mBytesSent;
+
+    /**
+     * Starts serving on a free port of the loopback interface, see getBaseUrl().
+     */
+    public LocalRegistryServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "LocalRegistryServer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    //the base url to give HttpRegistryTransport
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    //the number of pets the registry knows, deleted ones included
+    public synchronized int getPetCount() {
+        return mSequences.size();
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    //compressed body bytes, both ways
+    public synchronized long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public synchronized long getBytesSent() {
+        return mBytesSent;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mServerSocket.close();
+    }
+
+    //answers one connection at a time until closed, the sync never sends two requests at once
+    private void serve() {
+        while (!mServerSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                //closed
+                return;
+            }
+            try {
+                handle(socket);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "request failed", e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    //nothing more to send on it anyway
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        String[] requestLine = readLine(in).split(" ");
+        int contentLength = 0;
+        String header;
+        while (!(header = readLine(in)).isEmpty()) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().toLowerCase(Locale.US).equals("content-length")) {
+                contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+            }
+        }
+        byte[] body = new byte[contentLength];
+        for (int offset = 0; offset < contentLength; ) {
+            int read = in.read(body, offset, contentLength - offset);
+            if (read == -1) {
+                throw new IOException("request body cut short");
+            }
+            offset += read;
+        }
+
+        int status = 200;
+        byte[] answer;
+        try {
+            if (requestLine.length < 2 || !requestLine[0].equals("POST")) {
+                status = 405;
+                answer = new byte[0];
+            } else if (requestLine[1].equals(RegistryTransport.PATH_PUSH)) {
+                answer = SyncCodec.encodePushAnswer(push(SyncCodec.decodePush(body)));
+            } else if (requestLine[1].equals(RegistryTransport.PATH_PULL)) {
+                SyncCodec.PullAnswer pull = pull(SyncCodec.decodePull(body));
+                answer = SyncCodec.encodePullAnswer(pull.mChanges, pull.mCursor, pull.mMore);
+            } else {
+                status = 404;
+                answer = new byte[0];
+            }
+        } catch (IOException | RuntimeException e) {
+            //a body that can't be read
+            Log.w(LOG_TAG, "bad request", e);
+            status = 400;
+            answer = new byte[0];
+        }
+        synchronized (this) {
+            mRequestCount++;
+            mBytesReceived += body.length;
+            mBytesSent += answer.length;
+        }
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 " + status + (status == 200 ? " OK" : " Error") + "\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Encoding: gzip\r\n" +
+                "Content-Length: " + answer.length + "\r\n" +
+                "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+        out.write(answer);
+        out.flush();
+    }
+
+    //keeps every change newer than the version the registry has of its pet
+    private synchronized int push(SyncCodec.PushRequest request) {
+        int accepted = 0;
+        for (PetSyncChange change : request.mChanges) {
+            Long sequence = mSequences.get(change.getGlobalId());
+            if (sequence != null) {
+                PetSyncChange current = mChanges.get(sequence);
+                if (!change.isNewerThan(current.getChangedAt(), current.getOrigin())) {
+                    continue;
+                }
+                mChanges.remove(sequence);
+            }
+            mLastSequence++;
+            mChanges.put(mLastSequence, change.withSequence(mLastSequence));
+            mSequences.put(change.getGlobalId(), mLastSequence);
+            accepted++;
+        }
+        return accepted;
+    }
+
+    //the changes of other origins after the cursor, the cursor moves past the skipped ones too
+    private synchronized SyncCodec.PullAnswer pull(SyncCodec.PullRequest request) {
+        List<PetSyncChange> changes = new ArrayList<>();
+        long cursor = request.mSince;
+        Iterator<Map.Entry<Long, PetSyncChange>> entries = mChanges.tailMap(request.mSince, false)
+                .entrySet().iterator();
+        while (entries.hasNext() && changes.size() < request.mLimit) {
+            Map.Entry<Long, PetSyncChange> entry = entries.next();
+            cursor = entry.getKey();
+            if (!entry.getValue().getOrigin().equals(request.mOrigin)) {
+                changes.add(entry.getValue());
+            }
+        }
+        return new SyncCodec.PullAnswer(changes, cursor, entries.hasNext());
+    }
+
+    //a header line without its line break
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        return line.toString("US-ASCII");
+    }
+}
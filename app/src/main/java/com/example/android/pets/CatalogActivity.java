@@ -17,47 +17,152 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.app.ProgressDialog;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.os.TraceCompat;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetCsvImporter;
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetDatasetLoader;
+import com.example.android.pets.data.PetRecord;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.data.PetsContract;
 import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.sync.DebugRegistry;
+import com.example.android.pets.sync.PetSyncEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
 
-    //setting up an id for our loader
+    //setting up an id for our loader, page n of the catalog uses the id PET_LOADER + n
     private static final int PET_LOADER = 0;
 
-    PetDbHelper mDbHelper;
-    ListView petListView;
+    //number of pets loaded by each page of the catalog
+    private static final int PAGE_SIZE = 50;
+    //the next page starts loading when the user scrolls this close to the end of the list
+    private static final int PREFETCH_DISTANCE = 10;
+    //bundle keys of the _id and the sort value a page starts after
+    private static final String ARG_AFTER_ID = "after_id";
+    private static final String ARG_AFTER_KEY = "after_key";
+    //saved instance state keys of the order and the search terms, so both survive a rotation
+    private static final String STATE_SORT = "sort";
+    private static final String STATE_SEARCH_TERMS = "search_terms";
+
+    //how long the search waits for the user to stop typing before querying
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+    //maximum number of ranked results shown for a search
+    private static final int SEARCH_LIMIT = 100;
+
+    //request code of the file picker choosing the CSV file to import
+    private static final int REQUEST_IMPORT_CSV = 1;
+    //rejected import rows after this many are counted but not logged
+    private static final int MAX_LOGGED_REJECTIONS = 100;
+    //sizes of the generated datasets offered by the debug menu
+    private static final int[] DATASET_SIZES = {1000, 100000, 1000000};
+
+    //tag for the log messages
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    //handler of the main thread, used for the search debounce and the change observer
+    private final Handler mHandler = new Handler();
+
+    //reloads only the pages touched by a change instead of the whole catalog
+    private final ContentObserver mPetsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onPetsChanged(uri);
+        }
+    };
+
+    //the terms the catalog is filtered by, null when all pets are shown
+    private String mSearchTerms;
+    //the terms typed so far that the next search will use
+    private String mPendingSearchTerms;
+    //runs the search once typing settles down
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String terms = mPendingSearchTerms == null ? "" : mPendingSearchTerms.trim();
+            String searchTerms = terms.isEmpty() ? null : terms;
+            if (searchTerms == null ? mSearchTerms != null : !searchTerms.equals(mSearchTerms)) {
+                mSearchTerms = searchTerms;
+                restartCatalog();
+            }
+        }
+    };
+
+    //the loaded pages in list order, a null entry is a page that is still loading
+    private final ArrayList<PetCursorAdapter.SnapshotCursor> mPages = new ArrayList<>();
+    //the _id and sort value each page was loaded after, the keys of the keyset pagination
+    private final ArrayList<Long> mPageAfterIds = new ArrayList<>();
+    private final ArrayList<String> mPageAfterKeys = new ArrayList<>();
+    //the order of the catalog, one of the PetsContract SORT_ values
+    private String mSort = PetsContract.SORT_ID;
+
+    //when onCreate() started, and whether the first page has been shown since, for the
+    //time-to-first-row measurement
+    private long mCreateTime;
+    private boolean mFirstPageShown;
+
+    RecyclerView petListView;
+    View mEmptyView;
     PetCursorAdapter petCursorAdapter;
-    String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED};
+    //the weight is only there for the sort value of the weight order
+    String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_PHOTO};
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateTime = SystemClock.elapsedRealtime();
+        TraceCompat.beginSection("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        //the pages are loaded with the restored order and terms, before any loader starts
+        if (savedInstanceState != null) {
+            mSort = savedInstanceState.getString(STATE_SORT, PetsContract.SORT_ID);
+            mSearchTerms = savedInstanceState.getString(STATE_SEARCH_TERMS);
+            mPendingSearchTerms = mSearchTerms;
+        }
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -68,29 +173,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        //initialize the listview
-        petListView = (ListView)findViewById(R.id.pets_list_view);
-        //create a view to hold the empty view layout in case the list is empty
-        View view = findViewById(R.id.empty_view);
-        //set an empty view to the activity in case the listview is empty
-        petListView.setEmptyView(view);
-        // To access our database, we instantiate our subclass of SQLiteOpenHelper
-        // and pass the context, which is the current activity.
-        mDbHelper = new PetDbHelper(this, PetDbHelper.DATABASE_NAME, null, PetDbHelper.DATABASE_VERSION);
-
-        //initialising the cursorAdapter
-        petCursorAdapter = new PetCursorAdapter(this, null);
-        //setting the adapter to the listView
-        petListView.setAdapter(petCursorAdapter);
-
-        //initializing the CursorLoader
-        getLoaderManager().initLoader(PET_LOADER, null, this);
-        //displayDatabaseInfo();
-
-        //setting up the actions for clicking each item in the ListView
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //initialize the recyclerview
+        petListView = (RecyclerView) findViewById(R.id.pets_list_view);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(layoutManager);
+        //the view holding the empty view layout, shown in case the list is empty
+        mEmptyView = findViewById(R.id.empty_view);
+        //initialising the cursorAdapter, clicking a pet opens it in the editor activity
+        petCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int i, long id) {
+            public void onPetClick(long id) {
                 //prepare an intent to access the editor activity
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
                 //extracting the uri of each pet(row) to send with the intent
@@ -100,6 +192,66 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(intent);
             }
         });
+        //show the empty view whenever the adapter runs out of rows
+        petCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        //setting the adapter to the recyclerView
+        petListView.setAdapter(petCursorAdapter);
+
+        //initializing the CursorLoader of the first page, the rest are loaded while scrolling
+        loadPage(0, 0, null);
+        //the page loaders don't reload themselves, this observer reloads the pages that changed
+        getContentResolver().registerContentObserver(PetEntry.CONTENT_URI, true, mPetsObserver);
+
+        //ask for the next page before the user reaches the end of the loaded ones,
+        //this is also called after a layout changes the visible rows
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = petCursorAdapter.getItemCount();
+                if (totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+        TraceCompat.endSection();
+    }
+
+    /**
+     * Logs how long the first page of the catalog took to show, from onCreate() and, where the
+     * platform knows it, from the start of the process, and tells the system the activity is
+     * fully drawn so the time also shows up in the "Fully drawn" line of the activity manager.
+     */
+    private void reportFirstPageShown(int rows) {
+        long now = SystemClock.elapsedRealtime();
+        String message = "time to first row: " + (now - mCreateTime) + " ms from onCreate";
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            message += ", " + (now - Process.getStartElapsedRealtime()) + " ms from process start";
+        }
+        Log.i(LOG_TAG, message + " (" + rows + " rows)");
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            reportFullyDrawn();
+        }
+    }
+
+    //shows the empty view instead of the list when there are no pets to show
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(petCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
@@ -107,9 +259,57 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        //the debug tools are only for debug builds
+        menu.findItem(R.id.action_sync_local_registry).setVisible(BuildConfig.DEBUG);
+        menu.findItem(R.id.action_generate_dataset).setVisible(BuildConfig.DEBUG);
+
+        //the restored order is the checked one
+        menu.findItem(getSortItemId()).setChecked(true);
+
+        //search as you type, the query only runs once the user pauses typing
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.hint_search_pets));
+        //the restored terms are shown again, before the listener so they don't search once more
+        if (mSearchTerms != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchTerms, false);
+            searchView.clearFocus();
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                mPendingSearchTerms = query;
+                mHandler.removeCallbacks(mSearchRunnable);
+                mSearchRunnable.run();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingSearchTerms = newText;
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT, mSort);
+        outState.putString(STATE_SEARCH_TERMS, mSearchTerms);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        getContentResolver().unregisterContentObserver(mPetsObserver);
+        super.onDestroy();
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -119,6 +319,38 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // open the editor activity
                 insertDummyData();
                 return true;
+            // Respond to a click on the "Import CSV" menu option
+            case R.id.action_import_csv:
+                // let the user pick the file, the import starts in onActivityResult()
+                Intent pickFile = new Intent(Intent.ACTION_GET_CONTENT);
+                pickFile.setType("text/*");
+                pickFile.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pickFile, REQUEST_IMPORT_CSV);
+                return true;
+            // Respond to a click on one of the orders of the "Sort by" menu option
+            case R.id.sort_added:
+                setSort(item, PetsContract.SORT_ID);
+                return true;
+            case R.id.sort_newest:
+                setSort(item, PetsContract.SORT_NEWEST);
+                return true;
+            case R.id.sort_name:
+                setSort(item, PetsContract.SORT_NAME);
+                return true;
+            case R.id.sort_breed:
+                setSort(item, PetsContract.SORT_BREED);
+                return true;
+            case R.id.sort_weight:
+                setSort(item, PetsContract.SORT_WEIGHT);
+                return true;
+            // Respond to a click on the "Generate test pets" debug menu option
+            case R.id.action_generate_dataset:
+                showGenerateDatasetDialog();
+                return true;
+            // Respond to a click on the "Sync with local registry" debug menu option
+            case R.id.action_sync_local_registry:
+                new SyncLocalRegistryTask().execute();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 // here we delete all the pets
@@ -128,58 +360,356 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    //shows the catalog in another order, from its first page
+    private void setSort(MenuItem item, String sort) {
+        item.setChecked(true);
+        if (!sort.equals(mSort)) {
+            mSort = sort;
+            restartCatalog();
+        }
+    }
+
+    //the "Sort by" menu item of the current order
+    private int getSortItemId() {
+        switch (mSort) {
+            case PetsContract.SORT_NEWEST:
+                return R.id.sort_newest;
+            case PetsContract.SORT_NAME:
+                return R.id.sort_name;
+            case PetsContract.SORT_BREED:
+                return R.id.sort_breed;
+            case PetsContract.SORT_WEIGHT:
+                return R.id.sort_weight;
+            default:
+                return R.id.sort_added;
+        }
+    }
+
+    //the column the catalog is sorted by, null when it is sorted by _id
+    private String getSortColumn() {
+        switch (mSort) {
+            case PetsContract.SORT_NAME:
+                return PetEntry.COLUMN_PET_NAME;
+            case PetsContract.SORT_BREED:
+                return PetEntry.COLUMN_PET_BREED;
+            case PetsContract.SORT_WEIGHT:
+                return PetEntry.COLUMN_PET_WEIGHT;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_CSV) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                new ImportCsvTask().execute(data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     /**
-     * Temporary helper method to display information in the onscreen TextView about the state of
-     * the pets database.
+     * Syncs the pets with the stand-in registry of {@link DebugRegistry} in the background and
+     * shows what the sync did, the registry keeps what it got until the process dies.
      */
-    private void displayDatabaseInfo() {
+    private class SyncLocalRegistryTask extends AsyncTask<Void, Void, String> {
 
-        /*
-        * String[] projection = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED
-            , PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
-        *
-        * */
+        private ProgressDialog mProgressDialog;
 
-        // Perform this raw SQL query "SELECT * FROM pets"
-        // to get a Cursor that contains all rows from the pets table.
-        //Cursor cursor = db.query(PetEntry.TABLE_NAME, projection, null, null, null, null, null);
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog = new ProgressDialog(CatalogActivity.this);
+            mProgressDialog.setMessage(getString(R.string.sync_progress));
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.show();
+        }
 
+        @Override
+        protected String doInBackground(Void... voids) {
+            try {
+                PetSyncEngine.Result result = new PetSyncEngine(getApplicationContext(),
+                        DebugRegistry.getTransport()).sync();
+                return result + "\n\n" + getString(R.string.sync_registry_pets, DebugRegistry.getPetCount());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "sync failed", e);
+                return getString(R.string.sync_failed);
+            }
+        }
 
-        //Perform the query method of the content resolver using the matcher
-        Cursor cursor = getContentResolver().query(PetEntry.CONTENT_URI, projection,
-                null, null, null);
+        @Override
+        protected void onPostExecute(String report) {
+            if (isFinishing()) {
+                return;
+            }
+            mProgressDialog.dismiss();
+            new AlertDialog.Builder(CatalogActivity.this)
+                    .setTitle(R.string.action_sync_local_registry)
+                    .setMessage(report)
+                    .setPositiveButton(android.R.string.ok, null)
+                    .show();
+        }
+    }
 
-        //creating an cursorAdapter instance and attaching the cursor to the cursorAdapter
-        petCursorAdapter = new PetCursorAdapter(this, cursor);
-        //setting the cursorAdapter into the listView
-        petListView.setAdapter(petCursorAdapter);
+    /**
+     * Imports a CSV file in the background with a {@link PetCsvImporter}, showing how many pets
+     * got imported so far. Rejected rows are logged and counted in the final message.
+     */
+    private class ImportCsvTask extends AsyncTask<Uri, Integer, Integer> {
+
+        private ProgressDialog mProgressDialog;
+        private int mRejectedRows;
+        private IOException mError;
+
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog = new ProgressDialog(CatalogActivity.this);
+            mProgressDialog.setMessage(getString(R.string.import_progress, 0));
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected Integer doInBackground(Uri... uris) {
+            PetCsvImporter importer = new PetCsvImporter(getContentResolver())
+                    .setListener(new PetCsvImporter.Listener() {
+                        @Override
+                        public void onProgress(int rowsRead, int rowsImported) {
+                            publishProgress(rowsImported);
+                        }
+
+                        @Override
+                        public void onRowRejected(int row, String reason) {
+                            if (++mRejectedRows <= MAX_LOGGED_REJECTIONS) {
+                                Log.w(LOG_TAG, "import: row " + row + " rejected, " + reason);
+                            }
+                        }
+                    });
+            InputStream in = null;
+            try {
+                in = getContentResolver().openInputStream(uris[0]);
+                return importer.importCsv(in);
+            } catch (IOException e) {
+                mError = e;
+                return 0;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        //nothing left to read from it anyway
+                    }
+                }
+            }
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setMessage(getString(R.string.import_progress, values[0]));
+        }
+
+        @Override
+        protected void onPostExecute(Integer importedRows) {
+            if (!isFinishing()) {
+                mProgressDialog.dismiss();
+            }
+            if (mError != null) {
+                Log.e(LOG_TAG, "import failed", mError);
+                Toast.makeText(getApplicationContext(), R.string.import_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(getApplicationContext(),
+                        getString(R.string.import_done, importedRows, mRejectedRows), Toast.LENGTH_LONG).show();
+            }
+        }
+    }
+
+    //lets the user pick how many pets to generate, always from the same seed
+    private void showGenerateDatasetDialog() {
+        String[] sizes = new String[DATASET_SIZES.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = getString(R.string.generate_dataset_size, DATASET_SIZES[i]);
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_generate_dataset)
+                .setItems(sizes, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        new GenerateDatasetTask().execute(DATASET_SIZES[which]);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Loads a generated dataset of {@link PetDatasetGenerator#DEFAULT_SEED} in the background,
+     * showing how many pets got loaded so far.
+     */
+    private class GenerateDatasetTask extends AsyncTask<Integer, Integer, Integer> {
+
+        private ProgressDialog mProgressDialog;
 
+        @Override
+        protected void onPreExecute() {
+            mProgressDialog = new ProgressDialog(CatalogActivity.this);
+            mProgressDialog.setMessage(getString(R.string.generate_progress, 0));
+            mProgressDialog.setCancelable(false);
+            mProgressDialog.show();
+        }
+
+        @Override
+        protected Integer doInBackground(Integer... counts) {
+            return new PetDatasetLoader(getApplicationContext())
+                    .setListener(new PetDatasetLoader.Listener() {
+                        @Override
+                        public void onProgress(int petsLoaded, int petsTotal) {
+                            publishProgress(petsLoaded);
+                        }
+                    })
+                    .load(PetDatasetGenerator.DEFAULT_SEED, counts[0]);
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            mProgressDialog.setMessage(getString(R.string.generate_progress, values[0]));
+        }
+
+        @Override
+        protected void onPostExecute(Integer loadedPets) {
+            if (!isFinishing()) {
+                mProgressDialog.dismiss();
+            }
+            Toast.makeText(getApplicationContext(),
+                    getString(R.string.generate_done, loadedPets), Toast.LENGTH_LONG).show();
+        }
     }
 
+    public void insertDummyData(){
 
-    public long insertDummyData(){
+        //the dummy pet goes through the typed write, no ContentValues needed
+        PetRecord pet = new PetRecord("Totto", "Terrier", PetEntry.GENDER_MALE, 7);
+
+        PetWriteQueue.getInstance(this).insert(pet, null);
+    }
 
-        //creates a contentvalues instance to store the values we need to insert
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(PetEntry.COLUMN_PET_NAME, "Totto");
-        contentValues.put(PetEntry.COLUMN_PET_BREED, "Terrier");
-        contentValues.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
-        contentValues.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+    //starts loading the given page of the catalog, holding the pets after the given _id and
+    //sort value
+    private void loadPage(int page, long afterId, String afterKey) {
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, afterId);
+        args.putString(ARG_AFTER_KEY, afterKey);
+        if (page == mPages.size()) {
+            mPages.add(null);
+            mPageAfterIds.add(afterId);
+            mPageAfterKeys.add(afterKey);
+        }
+        if (page == 0) {
+            getLoaderManager().initLoader(PET_LOADER, args, this);
+        } else {
+            //a loader left over from an earlier page layout may still exist with another key
+            getLoaderManager().restartLoader(PET_LOADER + page, args, this);
+        }
+    }
 
-        Uri resultUri = getContentResolver().insert(PetEntry.CONTENT_URI, contentValues);
+    //loads one more page if the last loaded page was full and nothing is loading right now
+    private void loadNextPage() {
+        if (mSearchTerms != null || mPages.isEmpty() || mPages.contains(null)) {
+            //search results are ranked and come as a single page
+            return;
+        }
+        PetCursorAdapter.SnapshotCursor lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage.getCount() < PAGE_SIZE) {
+            //we already reached the end of the table
+            return;
+        }
+        String sortColumn = getSortColumn();
+        loadPage(mPages.size(), lastPage.getLastId(),
+                sortColumn == null ? null : lastPage.getLastString(sortColumn));
+    }
 
-        if (ContentUris.parseId(resultUri) != -1){
-            return ContentUris.parseId(resultUri);
-        }else return -1;
+    //drops every page after the given one, they are loaded again on demand
+    private void dropPagesAfter(int page) {
+        for (int i = mPages.size() - 1; i > page; i--) {
+            getLoaderManager().destroyLoader(PET_LOADER + i);
+            mPages.remove(i);
+            mPageAfterIds.remove(i);
+            mPageAfterKeys.remove(i);
+        }
+    }
+
+    //works out from the notified uri which loaded pages have to be reloaded
+    private void onPetsChanged(Uri uri) {
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2) {
+            try {
+                id = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+        }
+        if (id == -1 || mSearchTerms != null || !mSort.equals(PetsContract.SORT_ID)) {
+            //a change to many pets, a search whose ranking may change, or an order in which the
+            //changed pet may move to any page: reload everything loaded
+            for (int page = 0; page < mPages.size(); page++) {
+                reloadPage(page);
+            }
+            return;
+        }
+        //pages are _id ranges, page n holds the ids after mPageAfterIds[n] up to the start of
+        //the next page, so only the one page the changed pet falls into is reloaded
+        for (int page = mPages.size() - 1; page >= 0; page--) {
+            if (id > mPageAfterIds.get(page)) {
+                reloadPage(page);
+                return;
+            }
+        }
+    }
+
+    //reloads one page in the background, the old rows stay on screen until it is done
+    private void reloadPage(int page) {
+        Loader<Cursor> loader = getLoaderManager().getLoader(PET_LOADER + page);
+        if (loader instanceof PetPageLoader) {
+            ((PetPageLoader) loader).reload();
+        }
+    }
+
+    //throws away every loaded page and loads the catalog again from the first page
+    private void restartCatalog() {
+        dropPagesAfter(0);
+        mPages.set(0, null);
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_ID, 0);
+        args.putString(ARG_AFTER_KEY, null);
+        getLoaderManager().restartLoader(PET_LOADER, args, this);
+    }
+
+    //shows all the pages loaded so far as one list
+    private void showPages() {
+        ArrayList<PetCursorAdapter.SnapshotCursor> loaded = new ArrayList<>();
+        for (PetCursorAdapter.SnapshotCursor page : mPages) {
+            if (page == null) {
+                break;
+            }
+            loaded.add(page);
+        }
+        petCursorAdapter.swapCursors(loaded);
     }
 
     //is called whenever a cursorloader needs to be created
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         //return a new cursorloader that will handle creating a new cursor
-        // with the data being queried
-        return new CursorLoader(getApplicationContext(), PetEntry.CONTENT_URI, projection,
-                null, null, null);
+        // with the data of one page being queried
+        Uri pageUri;
+        if (mSearchTerms != null) {
+            pageUri = PetEntry.buildSearchUri(mSearchTerms).buildUpon()
+                    .appendQueryParameter(PetsContract.QUERY_PARAMETER_LIMIT, String.valueOf(SEARCH_LIMIT))
+                    .build();
+        } else {
+            pageUri = PetEntry.buildPageUri(PAGE_SIZE, mSort, bundle.getString(ARG_AFTER_KEY),
+                    bundle.getLong(ARG_AFTER_ID));
+        }
+        return new PetPageLoader(getApplicationContext(), pageUri, projection);
     }
 
     //is called when the created cursorloader is finished loading
@@ -187,16 +717,78 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
 
+        int page = loader.getId() - PET_LOADER;
+        if (page >= mPages.size()) {
+            //the page was dropped while it was loading
+            return;
+        }
+        //our page loaders always deliver snapshot cursors, see PetPageLoader
+        PetCursorAdapter.SnapshotCursor pageCursor = (PetCursorAdapter.SnapshotCursor) cursor;
+        mPages.set(page, pageCursor);
+
+        //if this page now ends somewhere else (pets were added or deleted) the following pages
+        //no longer start right after it, so they are loaded again
+        if (page + 1 < mPages.size()) {
+            boolean full = pageCursor.getCount() == PAGE_SIZE;
+            long lastId = full ? pageCursor.getLastId() : -1;
+            String sortColumn = getSortColumn();
+            String lastKey = full && sortColumn != null ? pageCursor.getLastString(sortColumn) : null;
+            if (lastId != mPageAfterIds.get(page + 1)
+                    || !TextUtils.equals(lastKey, mPageAfterKeys.get(page + 1))) {
+                dropPagesAfter(page);
+            }
+        }
+
         //load the returned cursor to the adapter to display its data on the listView
-        petCursorAdapter.swapCursor(cursor);
+        TraceCompat.beginSection("CatalogActivity.showPages");
+        try {
+            showPages();
+        } finally {
+            TraceCompat.endSection();
+        }
+        if (page == 0 && !mFirstPageShown) {
+            mFirstPageShown = true;
+            reportFirstPageShown(pageCursor.getCount());
+        }
     }
 
     //is called to reset the cursor whenever the data is changed to clear the old data
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
 
-        //pass a null cursor to the adapter
-        petCursorAdapter.swapCursor(null);
+        int page = loader.getId() - PET_LOADER;
+        if (page < mPages.size()) {
+            mPages.set(page, null);
+        }
+        //pass the pages that are still loaded to the adapter
+        showPages();
+    }
+
+    /**
+     * A {@link CursorLoader} for one page of the catalog that ignores content changes, the
+     * activity calls {@link #reload()} for the pages a change actually touches. It delivers
+     * {@link PetCursorAdapter.SnapshotCursor}s, snapshotted on the loader thread.
+     */
+    private static class PetPageLoader extends CursorLoader {
+
+        PetPageLoader(Context context, Uri uri, String[] projection) {
+            super(context, uri, projection, null, null, null);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            return cursor == null ? null : new PetCursorAdapter.SnapshotCursor(cursor);
+        }
+
+        @Override
+        public void onContentChanged() {
+            //every single pet change would reload every page, see onPetsChanged()
+        }
+
+        void reload() {
+            super.onContentChanged();
+        }
     }
 
     //this method shows a dialog to take a confirmation from the user when deleting pets
@@ -227,8 +819,18 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     //this method is used to delete all pets in the pets table
     public void deleteAllPets(){
 
-        int deleteResult = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-
-        Toast.makeText(getApplicationContext(), "all pets are deleted", Toast.LENGTH_SHORT).show();
+        //a large delete takes a while, it runs in the background and the toast waits for it
+        PetWriteQueue.getInstance(this).delete(PetEntry.CONTENT_URI, new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteDone(long deletedRows) {
+                if (deletedRows != PetWriteQueue.FAILED){
+                    Toast.makeText(getApplicationContext(), "all pets are deleted", Toast.LENGTH_SHORT).show();
+                }else {
+                    //the delete was rolled back, the pets are all still there
+                    Toast.makeText(getApplicationContext(),
+                            "something went wrong deleting the pets", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
     }
 }
@@ -19,7 +19,6 @@ import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -42,7 +41,9 @@ import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetPhotos;
+import com.example.android.pets.data.PetRecord;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.data.PetsContract;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
@@ -51,6 +52,9 @@ import com.example.android.pets.data.PetsContract.PetEntry;
  */
 public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>{
 
+    //request code of the image picker started by the choose photo menu option
+    private static final int REQUEST_CHOOSE_PHOTO = 1;
+
     Intent intent;
     Uri uri;
 
@@ -85,9 +89,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private int mGender = 0;
 
-    //an object of PetDbHelper
-    private PetDbHelper dbHelper;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -130,9 +131,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             setTitle(R.string.title_edit_pet);
             getLoaderManager().initLoader(0, null, this);
         }
-        //initializing the dbhelper
-        dbHelper = new PetDbHelper(this, PetDbHelper.DATABASE_NAME,
-                null, PetDbHelper.DATABASE_VERSION);
         setupSpinner();
     }
 
@@ -178,64 +176,53 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     //this method gets the values from the edit texts and save them to the db
     public void savePet(){
 
-        Uri resultUri = null;
-        long newPetRow = 0;
-
         //this variable is to hold the value of the weight editText
         String weight = mWeightEditText.getText().toString().trim();
-        //this variable holds the converted value of the weight to int
-        int petWeight = 0;
 
         String petName = mNameEditText.getText().toString().trim();
         String petBreed = mBreedEditText.getText().toString().trim();
-        //here we check is the weight field is empty or not
-        //if not empty we continue saving the pet
-        //if empty we put a zero "0" value in the field to avoid NumberFormat error
-        if (!weight.isEmpty()){
-            petWeight = Integer.parseInt(weight);
-        }else {
-            weight = "0";
-            petWeight = Integer.parseInt(weight);
-        }
 
         int petGender = mGender;
 
-        //if the pet weight field is empty we set it to 0
-        if (Integer.valueOf(petWeight) == null){
-            petWeight = 0;
-        }
-
         //if the breed field is empty we set it to UNKNOWN
         if (TextUtils.isEmpty(petBreed)){
             petBreed = "UNKNOWN BREED";
         }
 
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(PetEntry.COLUMN_PET_NAME, petName);
-        contentValues.put(PetEntry.COLUMN_PET_BREED, petBreed);
-        contentValues.put(PetEntry.COLUMN_PET_GENDER, petGender);
-        contentValues.put(PetEntry.COLUMN_PET_WEIGHT, petWeight);
+        //the typed record is bound straight into the provider's compiled statements
+        PetRecord pet = new PetRecord().setName(petName).setBreed(petBreed).setGender(petGender);
+
+        //here we check is the weight field is empty or not
+        //if empty the weight is unknown and saved as NULL instead of 0
+        if (!weight.isEmpty()){
+            pet.setWeight(Integer.parseInt(weight));
+        }
 
         //here we perform a check on the editor fields so if they are empty
         //we avoid crashing the app by doing nothing in the savePet() method
         if (!TextUtils.isEmpty(petName )){
 
+            //the save runs in the background, the editor can close right away and the
+            //callback tells the user how it went
+            PetWriteQueue.Callback callback = new PetWriteQueue.Callback() {
+                @Override
+                public void onWriteDone(long newPetRow) {
+                    if (newPetRow != PetWriteQueue.FAILED){
+                        //showing a toast messege to say we added a new pet successfully
+                        Toast.makeText(getApplicationContext(),
+                                "pet saved, id: " + newPetRow, Toast.LENGTH_SHORT).show();
+                    }else {
+                        //showing a toast messege to say that something went wrong
+                        Toast.makeText(getApplicationContext(),
+                                "something went wrong saving the pet", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            };
+            PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
             if (uri == null){
-                resultUri = getContentResolver().insert(PetEntry.CONTENT_URI, contentValues);
-                newPetRow = ContentUris.parseId(resultUri);
+                writeQueue.insert(pet, callback);
             }else {
-                newPetRow = getContentResolver().update(uri,
-                        contentValues, null, null);
-            }
-
-            if (newPetRow != -1){
-                //showing a toast messege to say we added a new pet successfully
-                Toast.makeText(getApplicationContext(),
-                        "pet saved, id: " + newPetRow, Toast.LENGTH_SHORT).show();
-            }else {
-                //showing a toast messege to say that something went wrong
-                Toast.makeText(getApplicationContext(),
-                        "something went wrong saving the pet", Toast.LENGTH_SHORT).show();
+                writeQueue.update(ContentUris.parseId(uri), pet, callback);
             }
         }
 
@@ -244,7 +231,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     //this method is used to delete the selected pet
     public void deletePet(){
 
-        int resultRow = getContentResolver().delete(uri, null, null);
+        PetWriteQueue.getInstance(this).delete(uri, null);
     }
 
     @Override
@@ -273,6 +260,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 // here we`re gonna delete the selected pet
                 deletePetDialog();
                 return true;
+            // Respond to a click on the "Choose photo" menu option
+            case R.id.action_choose_photo:
+                Intent choosePhoto = new Intent(Intent.ACTION_GET_CONTENT);
+                choosePhoto.setType("image/*");
+                choosePhoto.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(choosePhoto, REQUEST_CHOOSE_PHOTO);
+                return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
                 // If the pet hasn't changed, continue with navigating up to parent activity
@@ -301,6 +295,28 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         return super.onOptionsItemSelected(item);
     }
 
+    //the chosen image is copied and its thumbnail made in the background, the catalog shows
+    //it once the photo column of the pet changes
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode != REQUEST_CHOOSE_PHOTO) {
+            super.onActivityResult(requestCode, resultCode, data);
+            return;
+        }
+        if (resultCode != RESULT_OK || data == null || data.getData() == null || uri == null) {
+            return;
+        }
+        PetPhotos.getInstance(this).setPhoto(ContentUris.parseId(uri), data.getData(),
+                new PetPhotos.Callback() {
+                    @Override
+                    public void onPhotoSet(boolean success) {
+                        Toast.makeText(getApplicationContext(),
+                                success ? "photo saved" : "something went wrong saving the photo",
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
@@ -323,10 +339,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             String name = cursor.getString(nameColumnIndex);
             String breed = cursor.getString(breedColumnIndex);
             int gender = cursor.getInt(genderdColumnIndex);
-            int weight = cursor.getInt(weightColumnIndex);
             mNameEditText.setText(name);
             mBreedEditText.setText(breed);
-            mWeightEditText.setText(String.valueOf(weight));
+            //an unknown weight stays empty, so saving again keeps it unknown instead of 0
+            if (cursor.isNull(weightColumnIndex)){
+                mWeightEditText.setText("");
+            }else {
+                mWeightEditText.setText(String.valueOf(cursor.getInt(weightColumnIndex)));
+            }
             if (gender == PetEntry.GENDER_UNKNOWN){
                 mGenderSpinner.setSelection(0);
             }else if (gender == PetEntry.GENDER_MALE){
@@ -356,6 +376,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         if (uri == null){
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
+            //a photo is set on a saved pet
+            menu.findItem(R.id.action_choose_photo).setVisible(false);
         }
         return true;
     }
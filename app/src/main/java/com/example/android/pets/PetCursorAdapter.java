@@ -2,71 +2,316 @@ package com.example.android.pets;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MergeCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.example.android.pets.data.PetPhotos;
 import com.example.android.pets.data.PetsContract;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
- * {@link PetCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
+ * {@link PetCursorAdapter} is an adapter for a {@link RecyclerView}
+ * that uses {@link Cursor}s of pet data as its data source. This adapter knows
  * how to create list items for each row of pet data in the {@link Cursor}.
+ *
+ * When new cursors are swapped in, the difference to the old ones is computed off the main
+ * thread and only the rows that changed are rebound.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.PetViewHolder> {
+
+    /**
+     * Gets told when a pet in the list is clicked.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    //computes the diffs one after another, on a thread of their own so a diff never waits
+    //behind an import or a sync running on the AsyncTask executor
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final LayoutInflater mInflater;
+    private final OnPetClickListener mListener;
+    //the photo thumbnails, decoded at the size of the row image view
+    private final PetPhotos mPhotos;
+    private final int mThumbnailSize;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //the cursors the list shows, merged into mCursor, and the cached indexes of the columns we bind
+    private List<SnapshotCursor> mCursors = new ArrayList<>();
+    private Cursor mCursor;
+    private int mNameColumnIndex;
+    private int mBreedColumnIndex;
+    private int mPhotoColumnIndex;
+    //the ids and column values of the rows of mCursor, the next diff is computed against them
+    private long[] mIds = new long[0];
+    private String[][] mContents = new String[0][];
+    //bumped by every swap, a diff computed for an older swap is thrown away
+    private int mSwapGeneration;
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
-     * @param context The context
-     * @param c       The cursor from which to get the data.
+     * @param context  The context
+     * @param listener Gets told when a pet is clicked
      */
-    public PetCursorAdapter(Context context, Cursor c) {
-        super(context, c, 0 /* flags */);
+    public PetCursorAdapter(Context context, OnPetClickListener listener) {
+        mInflater = LayoutInflater.from(context);
+        mListener = listener;
+        mPhotos = PetPhotos.getInstance(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.pet_thumbnail_size);
+        setHasStableIds(true);
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
-     *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * Shows the given cursors one after another as a single list. The diff against the rows
+     * shown right now is computed in the background, then the cursors are swapped in and only
+     * the inserted, removed and changed rows are dispatched. Passing an empty list clears it.
+     */
+    public void swapCursors(List<SnapshotCursor> cursors) {
+        final int generation = ++mSwapGeneration;
+
+        //the new rows as one cursor and one snapshot, built from the snapshots the loaders took
+        int rowCount = 0;
+        for (SnapshotCursor cursor : cursors) {
+            rowCount += cursor.mIds.length;
+        }
+        final long[] newIds = new long[rowCount];
+        final String[][] newContents = new String[rowCount][];
+        int offset = 0;
+        for (SnapshotCursor cursor : cursors) {
+            System.arraycopy(cursor.mIds, 0, newIds, offset, cursor.mIds.length);
+            System.arraycopy(cursor.mContents, 0, newContents, offset, cursor.mIds.length);
+            offset += cursor.mIds.length;
+        }
+        final List<SnapshotCursor> newCursors = new ArrayList<>(cursors);
+
+        //the diff only reads the snapshots, never the cursors, so it is safe off the main thread
+        final DiffUtil.Callback callback = new SnapshotDiffCallback(mIds, mContents, newIds, newContents);
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(callback, false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mSwapGeneration) {
+                            //a newer swap happened meanwhile, it will dispatch its own diff
+                            return;
+                        }
+                        setCursors(newCursors, newIds, newContents);
+                        diff.dispatchUpdatesTo(PetCursorAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    //attaches new cursors and caches the indexes of the columns bound to the rows
+    private void setCursors(List<SnapshotCursor> cursors, long[] ids, String[][] contents) {
+        //hold the new cursors before letting go of the old ones, they may be the same
+        for (SnapshotCursor cursor : cursors) {
+            cursor.setHeldByAdapter(true);
+        }
+        for (SnapshotCursor cursor : mCursors) {
+            if (!cursors.contains(cursor)) {
+                cursor.setHeldByAdapter(false);
+            }
+        }
+        mCursors = cursors;
+        //closing a MergeCursor closes the cursors in it, so the merged cursor is never closed
+        mCursor = cursors.isEmpty()
+                ? null : new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
+        mIds = ids;
+        mContents = contents;
+        if (mCursor != null) {
+            mNameColumnIndex = mCursor.getColumnIndexOrThrow(PetsContract.PetEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = mCursor.getColumnIndexOrThrow(PetsContract.PetEntry.COLUMN_PET_BREED);
+            mPhotoColumnIndex = mCursor.getColumnIndexOrThrow(PetsContract.PetEntry.COLUMN_PET_PHOTO);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mIds[position];
+    }
+
+    /**
+     * Makes a new blank list item view holder. No data is set (or bound) to the views yet.
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        // (DONE) TODO: Fill out this method and return the list item view (instead of null)
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         //the attachToRoot third attribute must be set to false
-        return LayoutInflater.from(context).inflate(R.layout.pets_list_item_view, parent, false);
+        View view = mInflater.inflate(R.layout.pets_list_item_view, parent, false);
+        return new PetViewHolder(view);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * This method binds the pet data (in the row at the given position of the cursor) to the
+     * views of the holder. For example, the name for the current pet can be set on the name
+     * TextView in the list item layout.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        // (DONE) TODO: Fill out this method
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        mCursor.moveToPosition(position);
+
+        //set the values of the cursor into the textviews
+        holder.mPetName.setText(mCursor.getString(mNameColumnIndex));
+        holder.mPetBreed.setText(mCursor.getString(mBreedColumnIndex));
+        //only the small thumbnail file is decoded, never the photo itself
+        mPhotos.loadThumbnail(mCursor.getString(mPhotoColumnIndex), holder.mPetPhoto, mThumbnailSize);
+    }
+
+    /**
+     * Holds the views of one list item, so they are only looked up when the item is created.
+     */
+    public class PetViewHolder extends RecyclerView.ViewHolder {
+
         // the list item textview to hold the pet name from the cursor
-        TextView petName = (TextView) view.findViewById(R.id.pet_name_text_view);
+        final TextView mPetName;
         // the list item textview to hold the pet breed from the cursor
-        TextView petBreed = (TextView) view.findViewById(R.id.pet_breed_text_view);
+        final TextView mPetBreed;
+        // the list item imageview to hold the pet photo thumbnail
+        final ImageView mPetPhoto;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            mPetPhoto = (ImageView) itemView.findViewById(R.id.pet_photo_image_view);
+            mPetName = (TextView) itemView.findViewById(R.id.pet_name_text_view);
+            mPetBreed = (TextView) itemView.findViewById(R.id.pet_breed_text_view);
+            itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    if (getAdapterPosition() != RecyclerView.NO_POSITION) {
+                        mListener.onPetClick(getItemId());
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * A cursor that records the id and the column values of every row when it is created.
+     * Create it on the thread that loaded the cursor, the snapshot is what lets the adapter
+     * diff cursors without touching them from another thread.
+     *
+     * The loader that made it closes it as soon as a newer cursor is delivered, but the adapter
+     * keeps showing it until the diff to the newer one is dispatched. So close() only gives up
+     * the loader's hold, and the cursor really closes once the adapter doesn't hold it either.
+     */
+    public static class SnapshotCursor extends CursorWrapper {
+
+        private final long[] mIds;
+        private final String[][] mContents;
+        private boolean mHeldByLoader = true;
+        private boolean mHeldByAdapter;
+
+        public SnapshotCursor(Cursor cursor) {
+            super(cursor);
+            int idColumnIndex = cursor.getColumnIndexOrThrow(PetsContract.PetEntry._ID);
+            mIds = new long[cursor.getCount()];
+            mContents = new String[mIds.length][];
+            cursor.moveToPosition(-1);
+            for (int row = 0; cursor.moveToNext(); row++) {
+                mIds[row] = cursor.getLong(idColumnIndex);
+                //the values themselves, a hash of them could match for different rows and
+                //leave a changed row showing its old values
+                String[] values = new String[cursor.getColumnCount()];
+                for (int column = 0; column < values.length; column++) {
+                    values[column] = cursor.getString(column);
+                }
+                mContents[row] = values;
+            }
+            cursor.moveToPosition(-1);
+        }
+
+        @Override
+        public synchronized void close() {
+            mHeldByLoader = false;
+            closeIfUnused();
+        }
+
+        synchronized void setHeldByAdapter(boolean held) {
+            mHeldByAdapter = held;
+            closeIfUnused();
+        }
+
+        private void closeIfUnused() {
+            if (!mHeldByLoader && !mHeldByAdapter && !super.isClosed()) {
+                super.close();
+            }
+        }
+
+        //the _id of the last row, or -1 when the cursor is empty
+        public long getLastId() {
+            return mIds.length == 0 ? -1 : mIds[mIds.length - 1];
+        }
+
+        //the value of the given column in the last row, or null when the cursor is empty
+        public String getLastString(String column) {
+            if (mIds.length == 0) {
+                return null;
+            }
+            moveToPosition(mIds.length - 1);
+            return getString(getColumnIndexOrThrow(column));
+        }
+    }
+
+    /**
+     * Compares two snapshots, rows are the same pet when their ids match and unchanged when
+     * all their column values are equal too.
+     */
+    private static class SnapshotDiffCallback extends DiffUtil.Callback {
+
+        private final long[] mOldIds;
+        private final String[][] mOldContents;
+        private final long[] mNewIds;
+        private final String[][] mNewContents;
+
+        SnapshotDiffCallback(long[] oldIds, String[][] oldContents, long[] newIds, String[][] newContents) {
+            mOldIds = oldIds;
+            mOldContents = oldContents;
+            mNewIds = newIds;
+            mNewContents = newContents;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
 
-        //extract the name and breed values from the cursor
-        String name = cursor.getString(cursor.getColumnIndex(PetsContract.PetEntry.COLUMN_PET_NAME));
-        String breed = cursor.getString(cursor.getColumnIndex(PetsContract.PetEntry.COLUMN_PET_BREED));
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
 
-        //set the extracted values into the textviews
-        petName.setText(name);
-        petBreed.setText(breed);
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return Arrays.equals(mOldContents[oldItemPosition], mNewContents[newItemPosition]);
+        }
     }
 }
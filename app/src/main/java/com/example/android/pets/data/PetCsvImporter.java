@@ -0,0 +1,316 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Imports pets from a CSV stream (RFC 4180, like the pets export) into the pets table.
+ * The first row names the columns, name is required and breed, gender and weight are
+ * optional, other columns like _id are ignored. Gender is a GENDER_ number or male, female
+ * or unknown. A UTF-8 byte order mark before the header is skipped.
+ *
+ * The stream is read one row at a time and rows are inserted with bulkInsert() in chunks, every
+ * chunk being one transaction, so memory use only depends on the chunk size. Rows that can't be
+ * parsed or don't pass {@link PetValidator} are reported and skipped, the rest of the file still
+ * gets imported. A row is at most MAX_ROW_LENGTH characters long, a longer one is rejected
+ * too. A quoted field that is never closed, or not within that length, only fails its own row,
+ * the lines after the one it starts on are parsed again as rows of their own.
+ *
+ * Run it off the main thread.
+ */
+public class PetCsvImporter {
+
+    /**
+     * Gets told how the import goes, on the thread running it.
+     */
+    public interface Listener {
+
+        //called after every committed chunk
+        void onProgress(int rowsRead, int rowsImported);
+
+        //called for every skipped row, row 1 being the first one after the header
+        void onRowRejected(int row, String reason);
+    }
+
+    /** Number of rows inserted per transaction unless setChunkSize() says otherwise */
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    /** The most characters of a row, so a stray quote can't make a row of the rest of the file */
+    public static final int MAX_ROW_LENGTH = 64 * 1024;
+
+    private final ContentResolver mContentResolver;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private Listener mListener;
+
+    //the values of the row being parsed, and the field being parsed
+    private final ArrayList<String> mFields = new ArrayList<>();
+    private final StringBuilder mField = new StringBuilder();
+    //the raw text after the last opening quote, kept to parse it again when the quote is never
+    //closed. Like the field, it is never longer than MAX_ROW_LENGTH
+    private final StringBuilder mQuotedText = new StringBuilder();
+    //why readRow() rejected the row it read, null when it didn't
+    private String mRowError;
+    //the stream is read through this buffer, mBufferPosition is the next char to parse
+    private final char[] mBuffer = new char[8192];
+    private int mBufferPosition;
+    private int mBufferLength;
+
+    public PetCsvImporter(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    //sets the number of rows inserted per transaction
+    public PetCsvImporter setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    public PetCsvImporter setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Imports every valid row of the stream and returns the number of imported pets.
+     * The stream is not closed. Throws an IOException when the stream can't be read or
+     * the header row has no name column.
+     */
+    public int importCsv(InputStream in) throws IOException {
+        //room to push back a rejected quoted field and the buffer read after it
+        PushbackReader reader = new PushbackReader(new InputStreamReader(in, "UTF-8"),
+                MAX_ROW_LENGTH + mBuffer.length);
+        mBufferPosition = 0;
+        mBufferLength = 0;
+        //the byte order mark some spreadsheets write, it would stick to the first column name
+        if (peek(reader) == '\uFEFF') {
+            mBufferPosition++;
+        }
+        if (!readRow(reader)) {
+            return 0;
+        }
+        if (mRowError != null) {
+            throw new IOException("the CSV header has an " + mRowError);
+        }
+        int nameColumn = -1;
+        int breedColumn = -1;
+        int genderColumn = -1;
+        int weightColumn = -1;
+        for (int i = 0; i < mFields.size(); i++) {
+            String column = mFields.get(i).trim().toLowerCase(Locale.US);
+            if (column.equals(PetEntry.COLUMN_PET_NAME)) {
+                nameColumn = i;
+            } else if (column.equals(PetEntry.COLUMN_PET_BREED)) {
+                breedColumn = i;
+            } else if (column.equals(PetEntry.COLUMN_PET_GENDER)) {
+                genderColumn = i;
+            } else if (column.equals(PetEntry.COLUMN_PET_WEIGHT)) {
+                weightColumn = i;
+            }
+        }
+        if (nameColumn == -1) {
+            throw new IOException("the CSV header has no " + PetEntry.COLUMN_PET_NAME + " column");
+        }
+
+        ContentValues[] chunk = new ContentValues[mChunkSize];
+        int chunkRows = 0;
+        int rowsRead = 0;
+        int rowsImported = 0;
+        while (readRow(reader)) {
+            rowsRead++;
+            if (mRowError != null) {
+                if (mListener != null) {
+                    mListener.onRowRejected(rowsRead, mRowError);
+                }
+                continue;
+            }
+            if (mFields.size() == 1 && mFields.get(0).isEmpty()) {
+                //blank line
+                continue;
+            }
+            ContentValues values = new ContentValues();
+            try {
+                values.put(PetEntry.COLUMN_PET_NAME, field(nameColumn));
+                values.put(PetEntry.COLUMN_PET_BREED, field(breedColumn));
+                String gender = field(genderColumn);
+                values.put(PetEntry.COLUMN_PET_GENDER, gender == null ? PetEntry.GENDER_UNKNOWN : parseGender(gender));
+                String weight = field(weightColumn);
+                if (weight == null) {
+                    values.putNull(PetEntry.COLUMN_PET_WEIGHT);
+                } else {
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.parseInt(weight));
+                }
+                PetValidator.validate(values);
+            } catch (IllegalArgumentException e) {
+                //NumberFormatException included
+                if (mListener != null) {
+                    mListener.onRowRejected(rowsRead, e.getMessage());
+                }
+                continue;
+            }
+
+            chunk[chunkRows++] = values;
+            if (chunkRows == mChunkSize) {
+                rowsImported += mContentResolver.bulkInsert(PetEntry.CONTENT_URI, chunk);
+                chunkRows = 0;
+                if (mListener != null) {
+                    mListener.onProgress(rowsRead, rowsImported);
+                }
+            }
+        }
+        if (chunkRows > 0) {
+            ContentValues[] lastChunk = new ContentValues[chunkRows];
+            System.arraycopy(chunk, 0, lastChunk, 0, chunkRows);
+            rowsImported += mContentResolver.bulkInsert(PetEntry.CONTENT_URI, lastChunk);
+        }
+        if (mListener != null) {
+            mListener.onProgress(rowsRead, rowsImported);
+        }
+        return rowsImported;
+    }
+
+    //the trimmed value of a column of the current row, null when it is empty or missing
+    private String field(int column) {
+        if (column == -1 || column >= mFields.size()) {
+            return null;
+        }
+        String value = mFields.get(column).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static int parseGender(String gender) {
+        if (gender.equalsIgnoreCase("male")) {
+            return PetEntry.GENDER_MALE;
+        } else if (gender.equalsIgnoreCase("female")) {
+            return PetEntry.GENDER_FEMALE;
+        } else if (gender.equalsIgnoreCase("unknown")) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        int value = Integer.parseInt(gender);
+        if (value != PetEntry.GENDER_MALE && value != PetEntry.GENDER_FEMALE
+                && value != PetEntry.GENDER_UNKNOWN) {
+            throw new IllegalArgumentException("invalid gender " + gender);
+        }
+        return value;
+    }
+
+    /**
+     * Reads the next row into mFields. Quoted fields may hold commas, doubled quotes and line
+     * breaks. A quoted field still open at the end of the stream or at MAX_ROW_LENGTH, or an
+     * unquoted row longer than that, sets mRowError. Returns false at the end of the stream.
+     */
+    private boolean readRow(PushbackReader reader) throws IOException {
+        mFields.clear();
+        mField.setLength(0);
+        mRowError = null;
+        boolean quoted = false;
+        boolean any = false;
+        int length = 0;
+        int c;
+        while (length < MAX_ROW_LENGTH && (c = read(reader)) != -1) {
+            any = true;
+            length++;
+            if (quoted) {
+                mQuotedText.append((char) c);
+                if (c != '"') {
+                    mField.append((char) c);
+                } else if (peek(reader) == '"') {
+                    mField.append('"');
+                    mQuotedText.append('"');
+                    mBufferPosition++;
+                    length++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                mQuotedText.setLength(0);
+            } else if (c == ',') {
+                mFields.add(mField.toString());
+                mField.setLength(0);
+            } else if (c == '\n') {
+                mFields.add(mField.toString());
+                return true;
+            } else if (c != '\r') {
+                mField.append((char) c);
+            }
+        }
+        if (!any) {
+            return false;
+        }
+        if (quoted) {
+            mRowError = length < MAX_ROW_LENGTH ? "unterminated quoted field"
+                    : "quoted field not closed within " + MAX_ROW_LENGTH + " characters";
+            resumeAfterQuotedLine(reader);
+        } else if (length == MAX_ROW_LENGTH && skipLine(reader)) {
+            mRowError = "row longer than " + MAX_ROW_LENGTH + " characters";
+        }
+        mFields.add(mField.toString());
+        return true;
+    }
+
+    //pushes the text of the open quoted field after its first line break back into the stream,
+    //so the lines it took in are read as rows again
+    private void resumeAfterQuotedLine(PushbackReader reader) throws IOException {
+        int lineEnd = mQuotedText.indexOf("\n");
+        if (lineEnd == -1) {
+            return;
+        }
+        //what is left of the buffer comes after the quoted text
+        reader.unread(mBuffer, mBufferPosition, mBufferLength - mBufferPosition);
+        char[] rest = new char[mQuotedText.length() - lineEnd - 1];
+        mQuotedText.getChars(lineEnd + 1, mQuotedText.length(), rest, 0);
+        reader.unread(rest);
+        mBufferPosition = 0;
+        mBufferLength = 0;
+    }
+
+    //skips the rest of a line, returns false when it was already at its end
+    private boolean skipLine(PushbackReader reader) throws IOException {
+        int c = read(reader);
+        if (c == -1 || c == '\n') {
+            return false;
+        }
+        if (c == '\r' && peek(reader) == '\n') {
+            mBufferPosition++;
+            return false;
+        }
+        while ((c = read(reader)) != -1 && c != '\n') {
+            //skipped
+        }
+        return true;
+    }
+
+    //the next char of the stream, or -1 at its end
+    private int read(PushbackReader reader) throws IOException {
+        int c = peek(reader);
+        if (c != -1) {
+            mBufferPosition++;
+        }
+        return c;
+    }
+
+    //the next char of the stream without consuming it, or -1 at its end
+    private int peek(PushbackReader reader) throws IOException {
+        if (mBufferPosition == mBufferLength) {
+            mBufferLength = reader.read(mBuffer, 0, mBuffer.length);
+            mBufferPosition = 0;
+            if (mBufferLength <= 0) {
+                mBufferLength = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mBufferPosition];
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.pets.data;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic pets shaped like a real shelter's, for load testing: a few names and
+ * breeds are very common and the rest form a long tail, most pets have a known gender and the
+ * weights are skewed around what is usual for each breed. The same seed always generates the
+ * same pets in the same order. It is plain Java, the benchmark shares it.
+ */
+public final class PetDatasetGenerator {
+
+    /** The seed of the debug menu dataset and of the benchmark */
+    public static final long DEFAULT_SEED = 42;
+
+    //pet names from the most to the least popular, picked with a Zipf distribution
+    private static final String[] NAMES = {"Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper",
+            "Daisy", "Milo", "Bailey", "Oliver", "Lola", "Buddy", "Sadie", "Rocky", "Molly", "Bear",
+            "Stella", "Duke", "Chloe", "Tucker", "Coco", "Jack", "Sophie", "Leo", "Zoe", "Toby",
+            "Penny", "Oscar", "Lily", "Teddy", "Nala", "Bentley", "Rosie", "Zeus", "Ruby", "Winston",
+            "Gracie", "Louie", "Roxy", "Simba", "Maggie", "Jasper", "Pepper", "Loki", "Willow",
+            "Murphy", "Ginger", "Gus", "Kiki", "Rex", "Misty", "Bruno", "Olive", "Finn", "Hazel",
+            "Ollie", "Cleo", "Marley", "Mia", "Archie", "Nova", "Ziggy", "Mocha", "Otis", "Pumpkin",
+            "Dexter", "Honey", "Buster", "Shadow", "Tiger", "Smokey", "Oreo", "Biscuit", "Pippin",
+            "Totto"};
+    //syllables of the made up names of the long tail
+    private static final String[] SYLLABLES = {"ba", "bo", "ki", "lu", "ma", "mi", "no", "pe",
+            "ra", "ri", "sa", "so", "ta", "to", "zu", "fi", "ga", "ne", "wi", "yo"};
+    //share of the pets with a made up name instead of a popular one
+    private static final double RARE_NAME_SHARE = 0.3;
+    //exponent of the Zipf distribution of the popular names
+    private static final double NAME_SKEW = 0.7;
+
+    //breeds, their share of the shelter in percent and their usual weight in kg
+    private static final String[] BREEDS = {"Mixed", "Labrador", "Tabby", "Pit Bull", "Domestic Shorthair",
+            "German Shepherd", "Chihuahua", "Beagle", "Siamese", "Terrier", "Boxer", "Husky", "Persian",
+            "Poodle", "Maine Coon", "Dachshund", "Bulldog", "Golden Retriever", "Shih Tzu", "Rabbit",
+            "Great Dane", "Guinea Pig"};
+    private static final double[] BREED_SHARES = {18, 11, 10, 9, 8, 6, 5, 4, 4, 3.5, 3, 3, 2.5, 2,
+            2, 2, 1.5, 1.5, 1.5, 1.5, 0.5, 1};
+    private static final double[] BREED_WEIGHTS = {15, 30, 4.5, 25, 4.5, 32, 2.5, 11, 4, 8, 28,
+            23, 4.5, 15, 7, 9, 22, 30, 6, 2, 60, 1};
+    //spread of the weights around the usual weight of the breed, the log of the weight is normal
+    private static final double WEIGHT_SPREAD = 0.3;
+
+    //share of the pets of unknown gender, the others are half male and half female
+    private static final double UNKNOWN_GENDER_SHARE = 0.1;
+    //the PetEntry.GENDER_ values
+    private static final int GENDER_UNKNOWN = 0;
+    private static final int GENDER_MALE = 1;
+    private static final int GENDER_FEMALE = 2;
+
+    private final Random mRandom;
+    //cumulative distributions, picked from with a binary search
+    private final double[] mNameDistribution;
+    private final double[] mBreedDistribution;
+    private final StringBuilder mNameBuilder = new StringBuilder();
+
+    public PetDatasetGenerator(long seed) {
+        mRandom = new Random(seed);
+        double[] nameWeights = new double[NAMES.length];
+        for (int i = 0; i < nameWeights.length; i++) {
+            //StrictMath, so every platform computes the same distribution
+            nameWeights[i] = 1 / StrictMath.pow(i + 1, NAME_SKEW);
+        }
+        mNameDistribution = cumulative(nameWeights);
+        mBreedDistribution = cumulative(BREED_SHARES);
+    }
+
+    /**
+     * Sets the given record to the next pet and returns it, so one record can be reused for
+     * every pet of a large dataset.
+     */
+    public PetRecord next(PetRecord pet) {
+        String name = mRandom.nextDouble() < RARE_NAME_SHARE
+                ? rareName() : NAMES[pick(mNameDistribution)];
+        int breed = pick(mBreedDistribution);
+
+        int gender;
+        if (mRandom.nextDouble() < UNKNOWN_GENDER_SHARE) {
+            gender = GENDER_UNKNOWN;
+        } else {
+            gender = mRandom.nextBoolean() ? GENDER_MALE : GENDER_FEMALE;
+        }
+
+        //lognormal, most pets are close to the usual weight and a few are much heavier
+        double weight = BREED_WEIGHTS[breed] * StrictMath.exp(WEIGHT_SPREAD * mRandom.nextGaussian());
+        return pet.set(name, BREEDS[breed], gender, (int) Math.max(1, Math.round(weight)));
+    }
+
+    //a made up name of two or three syllables
+    private String rareName() {
+        mNameBuilder.setLength(0);
+        int syllables = 2 + mRandom.nextInt(2);
+        for (int i = 0; i < syllables; i++) {
+            mNameBuilder.append(SYLLABLES[mRandom.nextInt(SYLLABLES.length)]);
+        }
+        mNameBuilder.setCharAt(0, Character.toUpperCase(mNameBuilder.charAt(0)));
+        return mNameBuilder.toString();
+    }
+
+    //the index of a random value of a cumulative distribution
+    private int pick(double[] distribution) {
+        double value = mRandom.nextDouble() * distribution[distribution.length - 1];
+        int low = 0;
+        int high = distribution.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (distribution[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] distribution = new double[weights.length];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            distribution[i] = total;
+        }
+        return distribution;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Loads a dataset of a {@link PetDatasetGenerator} into the pets table, for load testing. The
+ * pets are generated into a reused chunk of records and inserted through the provider's typed
+ * bulk insert, every chunk being one transaction, so memory use only depends on the chunk size
+ * and millions of pets load without a ContentValues or a binder call per pet.
+ *
+ * Run it off the main thread.
+ */
+public class PetDatasetLoader {
+
+    /**
+     * Gets told how the load goes, on the thread running it.
+     */
+    public interface Listener {
+
+        //called after every committed chunk
+        void onProgress(int petsLoaded, int petsTotal);
+    }
+
+    /** Number of pets inserted per transaction unless setChunkSize() says otherwise */
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private static final String LOG_TAG = PetDatasetLoader.class.getSimpleName();
+
+    private final PetProvider mProvider;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private Listener mListener;
+
+    public PetDatasetLoader(Context context) {
+        mProvider = PetProvider.getLocalProvider(context);
+    }
+
+    public PetDatasetLoader setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    public PetDatasetLoader setListener(Listener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Generates count pets from the given seed and inserts them, returns the number inserted.
+     * Loading the same seed again adds the same pets once more.
+     */
+    public int load(long seed, int count) {
+        long startTime = SystemClock.elapsedRealtime();
+        PetDatasetGenerator generator = new PetDatasetGenerator(seed);
+        PetRecord[] chunk = new PetRecord[Math.min(mChunkSize, Math.max(count, 1))];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = new PetRecord();
+        }
+
+        int generated = 0;
+        int loaded = 0;
+        while (generated < count) {
+            int size = Math.min(chunk.length, count - generated);
+            for (int i = 0; i < size; i++) {
+                generator.next(chunk[i]);
+            }
+            generated += size;
+            loaded += mProvider.insertPets(chunk, size);
+            if (mListener != null) {
+                mListener.onProgress(generated, count);
+            }
+        }
+
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        Log.i(LOG_TAG, "load: " + loaded + " pets of seed " + seed + " in " + elapsed + " ms ("
+                + (loaded * 1000L / elapsed) + " pets/s)");
+        return loaded;
+    }
+}
@@ -1,10 +1,21 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.android.pets.data.PetsContract.PetChangeEntry;
 import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetSearchEntry;
+import com.example.android.pets.data.PetsContract.PetStatsEntry;
+import com.example.android.pets.data.PetsContract.PetSyncEntry;
+
+import java.io.File;
 /**
  * Created by ali on 9/23/2018.
  */
@@ -13,34 +24,443 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
     //constant for the db name
     public static final String DATABASE_NAME = "shelter.db";
-    //constant for the db version
-    public static int DATABASE_VERSION = 1;
-    //constant for the create command used to create tables
-    private final String DB_CREATE_TABLE_COMMAND = "CREATE TABLE " +
+    //constant for the db version, every entry of MIGRATIONS moves the schema one version up
+    public static final int DATABASE_VERSION = 10;
+    //constant for the create command used to create tables (the version 1 schema)
+    private static final String DB_CREATE_TABLE_COMMAND = "CREATE TABLE " +
             PetEntry.TABLE_NAME + "(" + PetEntry._ID + " INTEGER PRIMARY KEY" +
             "," + PetEntry.COLUMN_PET_NAME + " TEXT" + "," + PetEntry.COLUMN_PET_BREED +
             " TEXT" + "," + PetEntry.COLUMN_PET_GENDER + " INTEGER" +
             "," + PetEntry.COLUMN_PET_WEIGHT + " INTEGER" + ")";
-    //constant for the drop table command used to delete tables
-    private final String DB_DROP_TABLE_COMMAND = "DROP TABLE IF EXISTS " + PetEntry.TABLE_NAME;
 
-    public PetDbHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+    //condition of the change log triggers, true while at least one consumer is registered
+    private static final String CHANGE_CONSUMERS_EXIST = "EXISTS (SELECT 1 FROM " +
+            PetChangeEntry.CONSUMERS_TABLE_NAME + ")";
+
+    /**
+     * Ordered schema migrations, MIGRATIONS[i] takes the database from version i + 1 to i + 2.
+     * A new database is created at version 1 and then walks the same chain as an upgraded one,
+     * so both always end up with the same schema. Never change a step that has shipped,
+     * append a new one and bump DATABASE_VERSION instead.
+     */
+    private static final String[][] MIGRATIONS = {
+            // 1 -> 2: indexes for the name, breed and gender/weight lookups
+            {
+                    "CREATE INDEX IF NOT EXISTS pets_name_idx ON " + PetEntry.TABLE_NAME +
+                            "(" + PetEntry.COLUMN_PET_NAME + ")",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_idx ON " + PetEntry.TABLE_NAME +
+                            "(" + PetEntry.COLUMN_PET_BREED + ")",
+                    "CREATE INDEX IF NOT EXISTS pets_gender_weight_idx ON " + PetEntry.TABLE_NAME +
+                            "(" + PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + ")"
+            },
+            // 2 -> 3: full text index of the pet names and breeds, kept in sync by triggers
+            {
+                    "CREATE VIRTUAL TABLE " + PetSearchEntry.TABLE_NAME + " USING fts4(" +
+                            PetSearchEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED + ")",
+                    "INSERT INTO " + PetSearchEntry.TABLE_NAME + "(" + PetSearchEntry.COLUMN_DOCID + "," +
+                            PetSearchEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED + ") SELECT " +
+                            PetEntry._ID + "," + PetEntry.COLUMN_PET_NAME + "," + PetEntry.COLUMN_PET_BREED +
+                            " FROM " + PetEntry.TABLE_NAME,
+                    "CREATE TRIGGER pets_fts_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                            "INSERT INTO " + PetSearchEntry.TABLE_NAME + "(" + PetSearchEntry.COLUMN_DOCID + "," +
+                            PetSearchEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED + ") VALUES (new." +
+                            PetEntry._ID + ",new." + PetEntry.COLUMN_PET_NAME + ",new." + PetEntry.COLUMN_PET_BREED +
+                            "); END",
+                    "CREATE TRIGGER pets_fts_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + "," +
+                            PetEntry.COLUMN_PET_BREED + " ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                            "UPDATE " + PetSearchEntry.TABLE_NAME + " SET " + PetSearchEntry.COLUMN_PET_NAME +
+                            "=new." + PetEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED + "=new." +
+                            PetEntry.COLUMN_PET_BREED + " WHERE " + PetSearchEntry.COLUMN_DOCID + "=old." +
+                            PetEntry._ID + "; END",
+                    "CREATE TRIGGER pets_fts_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                            "DELETE FROM " + PetSearchEntry.TABLE_NAME + " WHERE " + PetSearchEntry.COLUMN_DOCID +
+                            "=old." + PetEntry._ID + "; END"
+            },
+            // 3 -> 4: PetStats summary table, kept in sync by triggers, and a breed/weight index
+            // so the weight extremes of a breed are read from the index instead of stored
+            {
+                    "CREATE TABLE " + PetStatsEntry.TABLE_NAME + "(" +
+                            PetStatsEntry.COLUMN_DIMENSION + " TEXT NOT NULL," +
+                            PetStatsEntry.COLUMN_KEY + " TEXT NOT NULL," +
+                            PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL," +
+                            PetStatsEntry.COLUMN_WEIGHT_COUNT + " INTEGER NOT NULL," +
+                            PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL," +
+                            "PRIMARY KEY(" + PetStatsEntry.COLUMN_DIMENSION + "," + PetStatsEntry.COLUMN_KEY + "))",
+                    "INSERT INTO " + PetStatsEntry.TABLE_NAME + " " + statsRecomputeQuery(null),
+                    "DROP INDEX IF EXISTS pets_breed_idx",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_weight_idx ON " + PetEntry.TABLE_NAME +
+                            "(" + PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_WEIGHT + ")",
+                    "CREATE TRIGGER pets_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                            statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_BREED + "," +
+                            PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + " ON " +
+                            PetEntry.TABLE_NAME + " BEGIN " +
+                            statsChange("old", false) + statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN " +
+                            statsChange("old", false) + " END"
+            },
+            // 4 -> 5: deleted (tombstone) column, tombstoned pets leave the statistics and the
+            // full text index right away and their rows are purged later
+            {
+                    "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PET_DELETED +
+                            " INTEGER NOT NULL DEFAULT 0",
+                    "CREATE INDEX IF NOT EXISTS pets_deleted_idx ON " + PetEntry.TABLE_NAME +
+                            "(" + PetEntry.COLUMN_PET_DELETED + ")",
+                    "DROP TRIGGER IF EXISTS pets_stats_insert",
+                    "DROP TRIGGER IF EXISTS pets_stats_update",
+                    "DROP TRIGGER IF EXISTS pets_stats_delete",
+                    "CREATE TRIGGER pets_stats_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                            " WHEN new." + PetEntry.COLUMN_PET_DELETED + "=0 BEGIN " +
+                            statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_update_old AFTER UPDATE OF " + PetEntry.COLUMN_PET_BREED + "," +
+                            PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + "," +
+                            PetEntry.COLUMN_PET_DELETED + " ON " + PetEntry.TABLE_NAME +
+                            " WHEN old." + PetEntry.COLUMN_PET_DELETED + "=0 BEGIN " +
+                            statsChange("old", false) + " END",
+                    "CREATE TRIGGER pets_stats_update_new AFTER UPDATE OF " + PetEntry.COLUMN_PET_BREED + "," +
+                            PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + "," +
+                            PetEntry.COLUMN_PET_DELETED + " ON " + PetEntry.TABLE_NAME +
+                            " WHEN new." + PetEntry.COLUMN_PET_DELETED + "=0 BEGIN " +
+                            statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                            " WHEN old." + PetEntry.COLUMN_PET_DELETED + "=0 BEGIN " +
+                            statsChange("old", false) + " END",
+                    "CREATE TRIGGER pets_fts_tombstone AFTER UPDATE OF " + PetEntry.COLUMN_PET_DELETED +
+                            " ON " + PetEntry.TABLE_NAME + " WHEN new." + PetEntry.COLUMN_PET_DELETED +
+                            "=1 BEGIN DELETE FROM " + PetSearchEntry.TABLE_NAME + " WHERE " +
+                            PetSearchEntry.COLUMN_DOCID + "=old." + PetEntry._ID + "; END"
+            },
+            // 5 -> 6: indexes for the name, breed and weight sorts of the catalog. They start with
+            // the deleted column and end with _id, so a sorted page is one range of the index, and
+            // they also find the deleted rows to purge, which makes pets_deleted_idx redundant
+            {
+                    "CREATE INDEX IF NOT EXISTS pets_name_sort_idx ON " + PetEntry.TABLE_NAME + "(" +
+                            PetEntry.COLUMN_PET_DELETED + "," + PetEntry.COLUMN_PET_NAME +
+                            " COLLATE LOCALIZED," + PetEntry._ID + ")",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_sort_idx ON " + PetEntry.TABLE_NAME + "(" +
+                            PetEntry.COLUMN_PET_DELETED + "," + PetEntry.COLUMN_PET_BREED + "," +
+                            PetEntry._ID + ")",
+                    "CREATE INDEX IF NOT EXISTS pets_weight_sort_idx ON " + PetEntry.TABLE_NAME + "(" +
+                            PetEntry.COLUMN_PET_DELETED + "," + PetEntry.COLUMN_PET_WEIGHT + "," +
+                            PetEntry._ID + ")",
+                    "DROP INDEX IF EXISTS pets_deleted_idx"
+            },
+            // 6 -> 7: the file name of the photo of a pet, the image itself stays out of the
+            // database
+            {
+                    "ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN " + PetEntry.COLUMN_PET_PHOTO + " TEXT"
+            },
+            // 7 -> 8: the change log and its consumers. AUTOINCREMENT keeps the sequence growing
+            // after the oldest changes are compacted away, and the triggers log nothing while
+            // no consumer is registered so writes don't pay for a log nobody reads
+            {
+                    "CREATE TABLE " + PetChangeEntry.TABLE_NAME + " (" +
+                            PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, " +
+                            PetChangeEntry.COLUMN_OPERATION + " TEXT NOT NULL, " +
+                            PetChangeEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL)",
+                    "CREATE TABLE " + PetChangeEntry.CONSUMERS_TABLE_NAME + " (" +
+                            PetChangeEntry.COLUMN_CONSUMER_NAME + " TEXT PRIMARY KEY, " +
+                            PetChangeEntry.COLUMN_ACKED_SEQUENCE + " INTEGER NOT NULL)",
+                    "CREATE TRIGGER pets_changes_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                            " WHEN " + CHANGE_CONSUMERS_EXIST + " BEGIN " +
+                            changeLogInsert(PetsContract.CHANGE_INSERT) + " END",
+                    "CREATE TRIGGER pets_changes_update AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + "," +
+                            PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_GENDER + "," +
+                            PetEntry.COLUMN_PET_WEIGHT + "," + PetEntry.COLUMN_PET_PHOTO + " ON " +
+                            PetEntry.TABLE_NAME + " WHEN new." + PetEntry.COLUMN_PET_DELETED + "=0 AND " +
+                            CHANGE_CONSUMERS_EXIST + " BEGIN " +
+                            changeLogInsert(PetsContract.CHANGE_UPDATE) + " END",
+                    "CREATE TRIGGER pets_changes_delete AFTER UPDATE OF " + PetEntry.COLUMN_PET_DELETED +
+                            " ON " + PetEntry.TABLE_NAME + " WHEN new." + PetEntry.COLUMN_PET_DELETED +
+                            "=1 AND old." + PetEntry.COLUMN_PET_DELETED + "=0 AND " +
+                            CHANGE_CONSUMERS_EXIST + " BEGIN " +
+                            changeLogInsert(PetsContract.CHANGE_DELETE) + " END"
+            },
+            // 8 -> 9: registry sync tables. The map rows outlive purged pets, so a late change
+            // of a deleted pet still loses against its delete
+            {
+                    "CREATE TABLE " + PetSyncEntry.TABLE_NAME + " (" +
+                            PetSyncEntry.COLUMN_PET_ID + " INTEGER PRIMARY KEY, " +
+                            PetSyncEntry.COLUMN_GLOBAL_ID + " TEXT NOT NULL UNIQUE, " +
+                            PetSyncEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL, " +
+                            PetSyncEntry.COLUMN_ORIGIN + " TEXT NOT NULL, " +
+                            PetSyncEntry.COLUMN_PULLED_SEQUENCE + " INTEGER NOT NULL DEFAULT 0)",
+                    "CREATE TABLE " + PetSyncEntry.STATE_TABLE_NAME + " (" +
+                            PetSyncEntry.COLUMN_STATE_NAME + " TEXT PRIMARY KEY, " +
+                            PetSyncEntry.COLUMN_STATE_VALUE + " TEXT)"
+            },
+            // 9 -> 10: rebuilds the full text index with prefix indexes, so the prefix queries
+            // of the search read the terms of one prefix instead of scanning the whole term
+            // list. The triggers name the table and keep working against the new one
+            {
+                    "DROP TABLE IF EXISTS " + PetSearchEntry.TABLE_NAME,
+                    "CREATE VIRTUAL TABLE " + PetSearchEntry.TABLE_NAME + " USING fts4(" +
+                            PetSearchEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED +
+                            ftsPrefixOption() + ")",
+                    "INSERT INTO " + PetSearchEntry.TABLE_NAME + "(" + PetSearchEntry.COLUMN_DOCID + "," +
+                            PetSearchEntry.COLUMN_PET_NAME + "," + PetSearchEntry.COLUMN_PET_BREED + ") SELECT " +
+                            PetEntry._ID + "," + PetEntry.COLUMN_PET_NAME + "," + PetEntry.COLUMN_PET_BREED +
+                            " FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_DELETED + "=0"
+            },
+    };
+
+    /**
+     * The prefix option of the full text index, prefix indexes for the 1 to 3 character
+     * prefixes the search box sends. The SQLite of API 15 (3.7.4) predates the option and
+     * refuses the table with it, so there the index is rebuilt without one.
+     */
+    private static String ftsPrefixOption() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? ",prefix=\"1,2,3\"" : "";
+    }
+
+    /**
+     * Computes the rows of the PetStats summary table from scratch, by scanning the pets rows
+     * matching where (all of them when it is null). The keys are text, a missing gender or
+     * breed gets the empty key.
+     */
+    static String statsRecomputeQuery(String where) {
+        String from = " FROM " + PetEntry.TABLE_NAME + (where == null ? "" : " WHERE " + where);
+        return "SELECT '" + PetStatsEntry.DIMENSION_ALL + "','',COUNT(*)," + weightTotals() + from +
+                " UNION ALL SELECT '" + PetStatsEntry.DIMENSION_GENDER + "'," + statsKey(PetEntry.COLUMN_PET_GENDER) +
+                        ",COUNT(*)," + weightTotals() + from + " GROUP BY " + PetEntry.COLUMN_PET_GENDER +
+                " UNION ALL SELECT '" + PetStatsEntry.DIMENSION_BREED + "'," + statsKey(PetEntry.COLUMN_PET_BREED) +
+                        ",COUNT(*)," + weightTotals() + from + " GROUP BY " + PetEntry.COLUMN_PET_BREED;
+    }
+
+    //the PetStats key of a pets column, as text so integer and text keys share one column
+    static String statsKey(String column) {
+        return "IFNULL(CAST(" + column + " AS TEXT),'')";
+    }
+
+    //the number of known weights and their total, over the aggregated pets
+    private static String weightTotals() {
+        return "COUNT(" + PetEntry.COLUMN_PET_WEIGHT + "),IFNULL(SUM(" + PetEntry.COLUMN_PET_WEIGHT + "),0)";
+    }
+
+    /**
+     * Trigger statement appending a change of the new pet row to the change log, stamped with
+     * the current time in milliseconds (julianday() keeps the milliseconds strftime('%s') drops).
+     */
+    private static String changeLogInsert(String operation) {
+        return "INSERT INTO " + PetChangeEntry.TABLE_NAME + "(" + PetChangeEntry.COLUMN_PET_ID + "," +
+                PetChangeEntry.COLUMN_OPERATION + "," + PetChangeEntry.COLUMN_CHANGED_AT + ") VALUES (new." +
+                PetEntry._ID + ",'" + operation + "',CAST((julianday('now')-2440587.5)*86400000 AS INTEGER));";
+    }
+
+    /**
+     * Trigger statements adding the pet row (new or old) to the PetStats totals, or removing it
+     * when add is false. Gender and breed rows are created on first use and dropped again when
+     * their count gets back to 0, the row of the whole table always exists.
+     */
+    private static String statsChange(String row, boolean add) {
+        String sign = add ? "+" : "-";
+        String weight = row + "." + PetEntry.COLUMN_PET_WEIGHT;
+        String update = "UPDATE " + PetStatsEntry.TABLE_NAME + " SET " +
+                PetStatsEntry.COLUMN_COUNT + "=" + PetStatsEntry.COLUMN_COUNT + sign + "1," +
+                PetStatsEntry.COLUMN_WEIGHT_COUNT + "=" + PetStatsEntry.COLUMN_WEIGHT_COUNT + sign +
+                "(" + weight + " IS NOT NULL)," +
+                PetStatsEntry.COLUMN_WEIGHT_SUM + "=" + PetStatsEntry.COLUMN_WEIGHT_SUM + sign +
+                "IFNULL(" + weight + ",0) WHERE " +
+                PetStatsEntry.COLUMN_DIMENSION + "=";
+        StringBuilder statements = new StringBuilder()
+                .append(update).append("'").append(PetStatsEntry.DIMENSION_ALL).append("';");
+        String[][] dimensions = {
+                {PetStatsEntry.DIMENSION_GENDER, statsKey(row + "." + PetEntry.COLUMN_PET_GENDER)},
+                {PetStatsEntry.DIMENSION_BREED, statsKey(row + "." + PetEntry.COLUMN_PET_BREED)}};
+        for (String[] dimension : dimensions) {
+            String where = "'" + dimension[0] + "' AND " + PetStatsEntry.COLUMN_KEY + "=" + dimension[1];
+            if (add) {
+                statements.append("INSERT OR IGNORE INTO ").append(PetStatsEntry.TABLE_NAME).append(" VALUES ('")
+                        .append(dimension[0]).append("',").append(dimension[1]).append(",0,0,0);");
+            }
+            statements.append(update).append(where).append(";");
+            if (!add) {
+                statements.append("DELETE FROM ").append(PetStatsEntry.TABLE_NAME).append(" WHERE ")
+                        .append(PetStatsEntry.COLUMN_DIMENSION).append("=").append(where).append(" AND ")
+                        .append(PetStatsEntry.COLUMN_COUNT).append("=0;");
+            }
+        }
+        return statements.toString();
+    }
+
+    //the synchronous setting of the primary connection, the only one that writes. NORMAL is safe
+    //from corruption in write ahead logging mode and only risks the last commits on a power loss.
+    //The reader connections of the pool keep the platform's setting, which only matters for writes
+    static final String SYNCHRONOUS = "NORMAL";
+    //number of write ahead log pages after which SQLite checkpoints by itself
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    //checkpoint modes for checkpoint(), the mode argument needs SQLite 3.7.6 or newer
+    public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+    public static final String CHECKPOINT_FULL = "FULL";
+    public static final String CHECKPOINT_RESTART = "RESTART";
+
+    //value of the auto_vacuum pragma in incremental mode
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    //tag for the log messages
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
+    //the one helper of the process, see getInstance()
+    private static PetDbHelper sInstance;
+
+    //package private so the tests can open a database file of their own, the app only uses
+    //getInstance()
+    PetDbHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
         super(context, name, factory, version);
     }
 
+    /**
+     * Returns the helper owning the pets database for the whole process. Every part of the app
+     * shares its connection, so the database is opened, checked and migrated once.
+     */
+    public static synchronized PetDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            //the application context, a helper kept for the process must not hold an activity
+            sInstance = new PetDbHelper(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        }
+        return sInstance;
+    }
+
+    //for when the connection is configured, before the database is created, upgraded or opened.
+    //The database always runs in write ahead logging mode, so readers and a writer don't block.
+    //The journal mode is set here, before anything reads or writes the database, as the framework
+    //asks. Only called from API 16, onOpen() does it on older platforms
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        db.enableWriteAheadLogging();
+    }
+
+    //for when the database is opened, after it is created or upgraded
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        //pragmas only reach the primary connection, see SYNCHRONOUS
+        db.execSQL("PRAGMA synchronous=" + SYNCHRONOUS);
+        //this pragma returns a row, so it can't go through execSQL()
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    //whether the database is in incremental auto vacuum mode, so incrementalVacuum() frees pages
+    public boolean isIncrementalVacuum() {
+        return DatabaseUtils.longForQuery(getWritableDatabase(), "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Switches the database to incremental auto vacuum, so the pages freed by purging deleted
+     * pets can be given back with incrementalVacuum(). Returns true once the database is in that
+     * mode. Even a new database needs the switch, the platform creates android_metadata before
+     * onCreate(), and the mode of a database holding tables only changes with a full VACUUM.
+     *
+     * That VACUUM rewrites the whole file and holds the write lock while it does, every write of
+     * the app waits for it: on a large table that is seconds. It also needs about as much free
+     * space again, so it is not done when the space is missing (false is returned). That is why
+     * it is neither part of the open nor of a write, the housekeeping of {@link PetWriteQueue}
+     * only runs it once the app has not written for a while. Don't call it from the main thread.
+     */
+    public boolean enableIncrementalVacuum() {
+        if (isIncrementalVacuum()) {
+            return true;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        File file = new File(db.getPath());
+        //the copy VACUUM builds, and its journal
+        long needed = 2 * file.length();
+        long usable = file.getParentFile().getUsableSpace();
+        if (usable < needed) {
+            Log.w(LOG_TAG, "incremental auto vacuum postponed, " + usable + " bytes free and " +
+                    needed + " needed");
+            return false;
+        }
+        long startTime = SystemClock.elapsedRealtime();
+        db.execSQL("PRAGMA auto_vacuum=INCREMENTAL");
+        db.execSQL("VACUUM");
+        Log.i(LOG_TAG, "incremental auto vacuum enabled in " +
+                (SystemClock.elapsedRealtime() - startTime) + " ms");
+        return true;
+    }
+
+    /**
+     * Gives at most the given number of free pages back to the file system and returns how many
+     * it gave back, none unless the database is in incremental auto vacuum mode. Runs on the
+     * writable database, so don't call it from the main thread.
+     */
+    public long incrementalVacuum(int pages) {
+        SQLiteDatabase db = getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+        try {
+            //every step of the pragma frees one page, filling the cursor steps it to the end
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+        return freePages - DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    /**
+     * Copies the write ahead log back into the database file with the given CHECKPOINT_ mode,
+     * for example after a large import.
+     */
+    public void checkpoint(String mode) {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(" + mode + ")");
+    }
+
+    //runs a pragma that answers with a row and logs the answer
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            if (cursor.moveToFirst()) {
+                Log.d(LOG_TAG, pragma + " -> " + cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
 
     //for when the database is first created
     @Override
     public void onCreate(SQLiteDatabase db) {
 
+        createSchema(db, DATABASE_VERSION);
+    }
+
+    /**
+     * Creates the schema of the given version in an empty database, the way onCreate() does for
+     * DATABASE_VERSION. The migration test uses it to make databases of the older versions.
+     */
+    static void createSchema(SQLiteDatabase db, int version) {
         db.execSQL(DB_CREATE_TABLE_COMMAND);
+        migrate(db, 1, version);
     }
 
-    //for when the database schema is changed
+    //for when the database schema is changed, the existing rows are kept
     @Override
-    public void onUpgrade(SQLiteDatabase db, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+        migrate(db, oldVersion, newVersion);
+    }
 
-        db.execSQL(DB_DROP_TABLE_COMMAND);
-        onCreate(db);
+    /**
+     * Runs every migration step between the two versions, in order. SQLiteOpenHelper already
+     * wraps onCreate() and onUpgrade() in a transaction, so a failing step leaves the database
+     * at its old version.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            for (String statement : MIGRATIONS[version - 1]) {
+                db.execSQL(statement);
+            }
+        }
     }
 }
@@ -0,0 +1,143 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes cursor rows as CSV (RFC 4180, with a header row) or as a JSON array of objects.
+ * Rows are written as they are read, the export can be fed any number of cursors one after
+ * another and never holds more than the row being written.
+ */
+class PetExportWriter {
+
+    private final Writer mWriter;
+    private final boolean mJson;
+    //the column names of the first cursor, written once as the CSV header or used as JSON keys
+    private String[] mColumnNames;
+    private int mRowCount;
+
+    PetExportWriter(Writer writer, String mimeType) {
+        mWriter = writer;
+        mJson = PetsContract.MIME_TYPE_JSON.equals(mimeType);
+    }
+
+    /**
+     * Writes every row of the cursor and returns how many there were. All the cursors given
+     * to one export must have the same columns.
+     */
+    int writeRows(Cursor cursor) throws IOException {
+        if (mColumnNames == null) {
+            mColumnNames = cursor.getColumnNames();
+            if (mJson) {
+                mWriter.write('[');
+            } else {
+                for (int i = 0; i < mColumnNames.length; i++) {
+                    writeCsvValue(i, mColumnNames[i]);
+                }
+                mWriter.write("\r\n");
+            }
+        }
+
+        int firstRow = mRowCount;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            if (mJson) {
+                writeJsonRow(cursor);
+            } else {
+                for (int i = 0; i < mColumnNames.length; i++) {
+                    writeCsvValue(i, cursor.isNull(i) ? "" : cursor.getString(i));
+                }
+                mWriter.write("\r\n");
+            }
+            mRowCount++;
+        }
+        return mRowCount - firstRow;
+    }
+
+    /**
+     * Ends the export and flushes it. Returns the number of rows written.
+     */
+    int finish() throws IOException {
+        if (mJson) {
+            mWriter.write(mColumnNames == null ? "[]" : "\n]");
+        }
+        mWriter.flush();
+        return mRowCount;
+    }
+
+    //fields are only quoted when they have to be
+    private void writeCsvValue(int column, String value) throws IOException {
+        if (column > 0) {
+            mWriter.write(',');
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+            mWriter.write(value);
+        } else {
+            mWriter.write('"');
+            mWriter.write(value.replace("\"", "\"\""));
+            mWriter.write('"');
+        }
+    }
+
+    private void writeJsonRow(Cursor cursor) throws IOException {
+        mWriter.write(mRowCount == 0 ? "\n{" : ",\n{");
+        for (int i = 0; i < mColumnNames.length; i++) {
+            if (i > 0) {
+                mWriter.write(',');
+            }
+            writeJsonString(mColumnNames[i]);
+            mWriter.write(':');
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    mWriter.write(String.valueOf(cursor.getLong(i)));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    mWriter.write(String.valueOf(cursor.getDouble(i)));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    writeJsonString(cursor.getString(i));
+                    break;
+                default:
+                    //null, and blobs which have no place in an export
+                    mWriter.write("null");
+                    break;
+            }
+        }
+        mWriter.write('}');
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        mWriter.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    mWriter.write("\\\"");
+                    break;
+                case '\\':
+                    mWriter.write("\\\\");
+                    break;
+                case '\n':
+                    mWriter.write("\\n");
+                    break;
+                case '\r':
+                    mWriter.write("\\r");
+                    break;
+                case '\t':
+                    mWriter.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        mWriter.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        mWriter.write(c);
+                    }
+                    break;
+            }
+        }
+        mWriter.write('"');
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pet photos, kept as files in the photos directory of the app storage, never in the database.
+ * The photo column of a pet holds the file name of its photo. Every photo gets a small JPEG
+ * thumbnail next to it, made once when the photo is set, and lists only ever decode
+ * thumbnails, scaled to the size they are shown at and kept in a memory bounded cache.
+ */
+public final class PetPhotos {
+
+    /**
+     * Gets told on the main thread that a photo is set, or that it couldn't be.
+     */
+    public interface Callback {
+        void onPhotoSet(boolean success);
+    }
+
+    //directory of the photos in the app files directory, the thumbnails are in a subdirectory
+    private static final String PHOTO_DIRECTORY = "photos";
+    private static final String THUMBNAIL_DIRECTORY = "thumbnails";
+
+    //the shorter side of a thumbnail file, large enough for a list row on any screen density
+    private static final int THUMBNAIL_SIZE = 256;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    private static final String LOG_TAG = PetPhotos.class.getSimpleName();
+
+    private static PetPhotos sInstance;
+
+    private final Context mContext;
+    //copies new photos, one at a time
+    private final ExecutorService mCopyExecutor = Executors.newSingleThreadExecutor();
+    //decodes the list thumbnails, on threads of their own so a slow copy never holds them up
+    private final ExecutorService mDecodeExecutor = Executors.newFixedThreadPool(2);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //decoded thumbnails by "file name@size", bounded by their size in kilobytes
+    private final LruCache<String, Bitmap> mThumbnailCache;
+
+    /**
+     * Returns the photos of the app, their thumbnail cache takes an eighth of the heap at most.
+     */
+    public static synchronized PetPhotos getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetPhotos(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PetPhotos(Context context) {
+        mContext = context;
+        int cacheKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mThumbnailCache = new LruCache<String, Bitmap>(cacheKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Returns the file of a photo. Only plain file names are accepted, so a photo column can
+     * never point outside the photos directory.
+     */
+    public static File getPhotoFile(Context context, String photo) throws FileNotFoundException {
+        File directory = new File(context.getFilesDir(), PHOTO_DIRECTORY);
+        return checkedFile(directory, photo);
+    }
+
+    //the thumbnail file of a photo, it has the same name in the thumbnails directory
+    public static File getThumbnailFile(Context context, String photo) throws FileNotFoundException {
+        File directory = new File(new File(context.getFilesDir(), PHOTO_DIRECTORY), THUMBNAIL_DIRECTORY);
+        return checkedFile(directory, photo);
+    }
+
+    private static File checkedFile(File directory, String name) throws FileNotFoundException {
+        if (name == null || name.isEmpty() || name.contains(File.separator) || name.startsWith(".")) {
+            throw new FileNotFoundException("invalid photo name " + name);
+        }
+        return new File(directory, name);
+    }
+
+    /**
+     * Deletes the files of a photo that no pet uses anymore.
+     */
+    static void deletePhoto(Context context, String photo) {
+        try {
+            getPhotoFile(context, photo).delete();
+            getThumbnailFile(context, photo).delete();
+        } catch (FileNotFoundException e) {
+            //an invalid name has no files
+        }
+    }
+
+    /**
+     * Copies the image at the source uri into the photos directory in the background, makes its
+     * thumbnail and sets it as the photo of the pet. The photo it replaces is deleted.
+     */
+    public void setPhoto(final long petId, final Uri source, final Callback callback) {
+        mCopyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean success = copyPhoto(petId, source);
+                if (callback != null) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onPhotoSet(success);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private boolean copyPhoto(long petId, Uri source) {
+        //a new name for every photo, so the cached thumbnails of the old one never show up
+        String photo = petId + "-" + System.currentTimeMillis() + ".jpg";
+        try {
+            File file = getPhotoFile(mContext, photo);
+            File thumbnail = getThumbnailFile(mContext, photo);
+            if (!thumbnail.getParentFile().isDirectory() && !thumbnail.getParentFile().mkdirs()) {
+                throw new IOException("cannot create " + thumbnail.getParent());
+            }
+            InputStream in = mContext.getContentResolver().openInputStream(source);
+            if (in == null) {
+                throw new FileNotFoundException("cannot open " + source);
+            }
+            try {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (writeThumbnail(file, thumbnail) == null) {
+                throw new IOException(source + " is not an image");
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "photo of pet " + petId + " not set", e);
+            deletePhoto(mContext, photo);
+            return false;
+        }
+
+        String oldPhoto = PetProvider.getLocalProvider(mContext).updatePetPhoto(petId, photo);
+        if (photo.equals(oldPhoto)) {
+            //the pet is gone or deleted, nothing uses the new files
+            Log.w(LOG_TAG, "photo of pet " + petId + " not set, the pet is gone");
+            deletePhoto(mContext, photo);
+            return false;
+        }
+        if (oldPhoto != null) {
+            deletePhoto(mContext, oldPhoto);
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the photo scaled to THUMBNAIL_SIZE and writes it as the thumbnail.
+     * Returns the thumbnail bitmap, or null when the photo can't be decoded.
+     */
+    private static Bitmap writeThumbnail(File photo, File thumbnail) throws IOException {
+        Bitmap bitmap = decodeSampled(photo, THUMBNAIL_SIZE);
+        if (bitmap == null) {
+            return null;
+        }
+        OutputStream out = new FileOutputStream(thumbnail);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        } finally {
+            out.close();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes an image file scaled so its shorter side is size pixels, the list crops it to a
+     * square of that size. The file is decoded with the largest power of two subsampling that
+     * keeps both sides at least size pixels, so a large image is never decoded at full size,
+     * and then scaled down the rest of the way. A smaller image is left as it is. Returns null
+     * when the file is not an image.
+     */
+    private static Bitmap decodeSampled(File file, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = BitmapFactory.decodeFile(file.getPath(), options);
+        if (sampled == null) {
+            return null;
+        }
+        int shorterSide = Math.min(sampled.getWidth(), sampled.getHeight());
+        if (shorterSide <= size) {
+            return sampled;
+        }
+        float scale = (float) size / shorterSide;
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, Math.max(size, Math.round(sampled.getWidth() * scale)),
+                Math.max(size, Math.round(sampled.getHeight() * scale)), true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Shows the thumbnail of a photo in the view, at size pixels. A cached thumbnail is shown
+     * right away, otherwise it is decoded in the background. Binding the view again cancels a
+     * load that is still waiting for a thread, and a load that already runs is not shown. A
+     * null photo clears the view.
+     */
+    public void loadThumbnail(String photo, ImageView view, int size) {
+        Object tag = view.getTag();
+        if (tag instanceof ThumbnailLoad) {
+            ThumbnailLoad pending = (ThumbnailLoad) tag;
+            if (pending.mPhoto.equals(photo) && pending.mSize == size) {
+                //the view is bound to the photo it is already loading
+                return;
+            }
+            pending.mFuture.cancel(false);
+        }
+        view.setTag(null);
+        if (photo == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+        Bitmap cached = mThumbnailCache.get(thumbnailKey(photo, size));
+        if (cached != null) {
+            view.setImageBitmap(cached);
+            return;
+        }
+        view.setImageDrawable(null);
+        ThumbnailLoad load = new ThumbnailLoad(photo, view, size);
+        view.setTag(load);
+        load.mFuture = mDecodeExecutor.submit(load);
+    }
+
+    private static String thumbnailKey(String photo, int size) {
+        return photo + "@" + size;
+    }
+
+    /**
+     * Decodes the thumbnail of one binding of a view, the view's tag while it is pending.
+     */
+    private final class ThumbnailLoad implements Runnable {
+
+        final String mPhoto;
+        final ImageView mView;
+        final int mSize;
+        //set on the main thread right after submitting, before the view can be bound again
+        Future<?> mFuture;
+
+        ThumbnailLoad(String photo, ImageView view, int size) {
+            mPhoto = photo;
+            mView = view;
+            mSize = size;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap bitmap = decodeThumbnail(mPhoto, mSize);
+            if (bitmap != null) {
+                mThumbnailCache.put(thumbnailKey(mPhoto, mSize), bitmap);
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mView.getTag() != ThumbnailLoad.this) {
+                        //bound to another photo meanwhile
+                        return;
+                    }
+                    mView.setTag(null);
+                    if (bitmap != null) {
+                        mView.setImageBitmap(bitmap);
+                    }
+                }
+            });
+        }
+    }
+
+    //decodes the thumbnail of a photo, making it first if it went missing
+    private Bitmap decodeThumbnail(String photo, int size) {
+        try {
+            File thumbnail = getThumbnailFile(mContext, photo);
+            if (!thumbnail.isFile()) {
+                File file = getPhotoFile(mContext, photo);
+                if (!file.isFile() || writeThumbnail(file, thumbnail) == null) {
+                    return null;
+                }
+            }
+            return decodeSampled(thumbnail, size);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "thumbnail of " + photo + " not loaded", e);
+            return null;
+        }
+    }
+}
@@ -1,12 +1,46 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.support.v4.os.TraceCompat;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static com.example.android.pets.data.PetsContract.*;
 
@@ -21,6 +55,27 @@ public class PetProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI of a full text search over the pets table */
+    private static final int PET_SEARCH = 102;
+
+    /** URI matcher code for the content URI of the provider metrics */
+    private static final int PROVIDER_STATS = 103;
+
+    /** URI matcher code for the content URI of the slow operations log */
+    private static final int PROVIDER_SLOW_LOG = 104;
+
+    /** URI matcher code for the content URI of the pet statistics */
+    private static final int PET_STATS = 105;
+
+    /** URI matcher code for the content URI of the photo of a single pet */
+    private static final int PET_PHOTO = 106;
+
+    /** URI matcher code for the content URI of the photo thumbnail of a single pet */
+    private static final int PET_THUMBNAIL = 107;
+
+    /** URI matcher code for the content URI of the change log */
+    private static final int PET_CHANGES = 108;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -38,66 +93,294 @@ public class PetProvider extends ContentProvider {
         //setting up the right codes to the right patterns
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS, PETS);
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_PROVIDER_STATS, PROVIDER_STATS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_PROVIDER_STATS + "/" +
+                PATH_SLOW_LOG, PROVIDER_SLOW_LOG);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/" + PATH_CHANGES, PET_CHANGES);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/#/" + PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS + "/#/" + PATH_THUMBNAIL, PET_THUMBNAIL);
+    }
+
+    /**
+     * Names of the match codes in the provider metrics, in order from PETS. Every match code
+     * has one so the slots stay in line with the codes, but reading the metrics themselves is
+     * never recorded.
+     */
+    private static final String[] METRICS_MATCH_NAMES = {"pets", "pet_id", "search", "provider_stats",
+            "provider_slow_log", "stats", "photo", "thumbnail", "changes"};
+
+    /** Number of search results returned when the search uri has no limit parameter */
+    private static final int SEARCH_DEFAULT_LIMIT = 100;
+
+    /** Columns of a pet row, the ones a search can return and the ones the pet cache keeps */
+    private static final String[] PET_COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO};
+
+    /** Index of the photo in a pet row of the pet cache */
+    private static final int PET_PHOTO_INDEX = PET_COLUMNS.length - 1;
+
+    /** Number of rows inserted by bulkInsert() before giving other connections a chance to run */
+    private static final int BULK_INSERT_CHUNK_SIZE = 500;
+
+    /** Compiled insert statement used by bulkInsert(), columns are bound in this order */
+    private static final String BULK_INSERT_STATEMENT = "INSERT INTO " + PetEntry.TABLE_NAME +
+            " (" + PetEntry.COLUMN_PET_NAME + "," + PetEntry.COLUMN_PET_BREED + "," +
+            PetEntry.COLUMN_PET_GENDER + "," + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?,?,?,?)";
+
+    /** Compiled update statement used by updatePet(long, PetRecord), the _id is bound last */
+    private static final String UPDATE_BY_ID_STATEMENT = "UPDATE " + PetEntry.TABLE_NAME + " SET " +
+            PetEntry.COLUMN_PET_NAME + "=?," + PetEntry.COLUMN_PET_BREED + "=?," +
+            PetEntry.COLUMN_PET_GENDER + "=?," + PetEntry.COLUMN_PET_WEIGHT + "=? WHERE " +
+            PetEntry._ID + "=? AND " + PetEntry.COLUMN_PET_DELETED + "=0";
+
+    //selects the pets that are not deleted. The unary plus keeps SQLite from reading it through
+    //the sort indexes starting with the deleted column, the query then uses the index that fits
+    //the rest of the selection. The sorts use DELETED_KEY instead, see PetSort
+    private static final String NOT_DELETED = "+" + PetEntry.COLUMN_PET_DELETED + "=0";
+    private static final String DELETED_KEY = PetEntry.COLUMN_PET_DELETED + "=0";
+
+    /** The orders of the sort query parameter, by SORT_ value */
+    private static final HashMap<String, PetSort> SORTS = new HashMap<>();
+    static {
+        SORTS.put(SORT_ID, new PetSort(null, false));
+        SORTS.put(SORT_NAME, new PetSort(PetEntry.COLUMN_PET_NAME + " COLLATE LOCALIZED", false));
+        SORTS.put(SORT_BREED, new PetSort(PetEntry.COLUMN_PET_BREED, false));
+        SORTS.put(SORT_WEIGHT, new PetSort(PetEntry.COLUMN_PET_WEIGHT, false));
+        SORTS.put(SORT_NEWEST, new PetSort(null, true));
     }
 
+    //the most deleted rows purged in one transaction by purgeDeletedPets()
+    static final int PURGE_BATCH_SIZE = 500;
+
+    /**
+     * A write touching more rows than this notifies the whole pets uri once instead of
+     * every changed row on its own
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    /** Number of rows an export reads per query when it can page through the table on _id */
+    private static final int EXPORT_CHUNK_SIZE = 1000;
+
+    /** Mime types of the export streams */
+    private static final String[] EXPORT_MIME_TYPES = {MIME_TYPE_CSV, MIME_TYPE_JSON};
+
+    /** Number of single pet rows kept by the pet cache */
+    private static final int PET_CACHE_SIZE = 64;
+
+    /**
+     * The pet statistics: the stored totals of PetStats plus the average, and the weight extremes
+     * of each gender and breed read from the (gender, weight) and (breed, weight) indexes, and of
+     * the whole table from the weight sort index.
+     */
+    private static final String STATS_QUERY = "SELECT " + PetStatsEntry.COLUMN_DIMENSION + "," +
+            PetStatsEntry.COLUMN_KEY + "," + PetStatsEntry.COLUMN_COUNT + "," +
+            PetStatsEntry.COLUMN_WEIGHT_COUNT + "," + PetStatsEntry.COLUMN_WEIGHT_SUM + ",CAST(" +
+            PetStatsEntry.COLUMN_WEIGHT_SUM + " AS REAL)/" + PetStatsEntry.COLUMN_WEIGHT_COUNT + " AS " +
+            PetStatsEntry.COLUMN_WEIGHT_AVG + "," +
+            weightExtreme("MIN") + " AS " + PetStatsEntry.COLUMN_WEIGHT_MIN + "," +
+            weightExtreme("MAX") + " AS " + PetStatsEntry.COLUMN_WEIGHT_MAX +
+            " FROM " + PetStatsEntry.TABLE_NAME + " s";
+
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
-    //Creating a PetDbHelper object to gain access to the pets database
+    //rows read by the warm-up, about the first page of the catalog
+    private static final int WARM_UP_ROWS = 50;
+    //the first catalog page, read once in the background so its pages are cached before it's asked for
+    private static final String WARM_UP_QUERY = "SELECT " + PetEntry._ID + "," + PetEntry.COLUMN_PET_NAME + "," +
+            PetEntry.COLUMN_PET_BREED + "," + PetEntry.COLUMN_PET_WEIGHT + "," + PetEntry.COLUMN_PET_PHOTO +
+            " FROM " + PetEntry.TABLE_NAME + " WHERE " + NOT_DELETED + " ORDER BY " + PetEntry._ID +
+            " LIMIT " + WARM_UP_ROWS;
+
+    //the process-wide PetDbHelper giving access to the pets database
     private PetDbHelper mDbHelper;
+
+    //the most recently queried single pet rows by _id, so reopening a pet in the editor doesn't
+    //query SQLite again. Rows hold the PET_COLUMNS values in order.
+    private final LruCache<Long, Object[]> mPetCache = new LruCache<>(PET_CACHE_SIZE);
+    //bumped by every invalidation, a row read before the latest invalidation is never cached
+    private long mPetCacheGeneration;
+
+    //the statements of the typed PetRecord writes, compiled on first use and kept. A statement
+    //holds its bindings, so each one is locked from binding until it has run. The locks are only
+    //taken inside a transaction, after the database connection, never the other way around:
+    //runInTransaction() callers hold the connection and then come for these locks
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mUpdateStatement;
+
+    //while applyBatch() runs on a thread, the uris it changed are collected here
+    //instead of being notified right away, so they are sent once after the commit
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    //writes the export streams of openExportPipe() before API 19, on a pipe thread
+    private final PipeDataWriter<Void> mExportPipeWriter = new PipeDataWriter<Void>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, Void args) {
+            exportPets(output, uri, mimeType, opts);
+        }
+    };
+
+    //latency histograms and the slow operations log, served by the pets/_stats uris
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics(PETS, METRICS_MATCH_NAMES);
+
     /**
-     * Initialize the provider and the database helper object.
+     * Initialize the provider and the database helper object. onCreate() runs on the main thread
+     * before the first activity, so the database is only opened here on a background thread.
      */
     @Override
     public boolean onCreate() {
-        //initializing the PetDbHelper object to gain access to the pets database.
-        mDbHelper = new PetDbHelper(getContext(), PetDbHelper.DATABASE_NAME, null, PetDbHelper.DATABASE_VERSION);
+        TraceCompat.beginSection("PetProvider.onCreate");
+        try {
+            //the database is shared by the whole process, see PetDbHelper.getInstance()
+            mDbHelper = PetDbHelper.getInstance(getContext());
+            warmUp();
+        } finally {
+            TraceCompat.endSection();
+        }
         return true;
     }
 
+    /**
+     * Opens the database on a background thread and reads the first catalog page, so the first
+     * query of the catalog finds the schema checked, the migrations done and its pages cached
+     * instead of paying for all of it on the main thread's loader. A query arriving meanwhile
+     * waits for the open inside SQLiteOpenHelper, it never opens the database twice.
+     */
+    private void warmUp() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+                TraceCompat.beginSection("PetProvider.warmUp");
+                try {
+                    TraceCompat.beginSection("PetDbHelper.open");
+                    SQLiteDatabase database;
+                    try {
+                        database = mDbHelper.getWritableDatabase();
+                    } finally {
+                        TraceCompat.endSection();
+                    }
+                    long openedTime = SystemClock.elapsedRealtime();
+                    Cursor cursor = database.rawQuery(WARM_UP_QUERY, null);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                    Log.i(LOG_TAG, "warm-up: database opened in " + (openedTime - startTime) +
+                            " ms, first page read in " + (SystemClock.elapsedRealtime() - openedTime) + " ms");
+                } catch (RuntimeException e) {
+                    //the first real query opens the database again and reports the error
+                    Log.w(LOG_TAG, "warm-up failed", e);
+                } finally {
+                    TraceCompat.endSection();
+                }
+            }
+        }, "PetProviderWarmUp");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startTime = System.nanoTime();
+
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case PROVIDER_STATS:
+                // the metrics themselves are not measured
+                return mMetrics.buildStatsCursor();
+            case PROVIDER_SLOW_LOG:
+                return mMetrics.buildSlowLogCursor();
+        }
+
+        TraceCompat.beginSection("PetProvider.query");
+        try {
+            Cursor cursor = queryMatch(match, uri, projection, selection, selectionArgs, sortOrder);
+            // the query runs when the caller first reads the cursor, it is recorded then
+            return mMetrics.recordOnRead(cursor, match, uri, System.nanoTime() - startTime);
+        } finally {
+            TraceCompat.endSection();
+        }
+    }
+
+    //performs the query of query() for the already matched uri
+    private Cursor queryMatch(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
                 // For the PETS code, query the pets table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(PetEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null, null, sortOrder);
+                //a page of the table can be asked for with the limit and after parameters,
+                //we page on _id (keyset) so deep pages cost the same as the first one. The sort
+                //parameter picks one of the SORTS orders instead, which page on their sort value
+                //and _id
+                PetsQuery petsQuery = buildPetsQuery(uri, projection, selection, selectionArgs, sortOrder);
+                cursor = database.rawQuery(petsQuery.mSql, petsQuery.mArgs);
                 break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
                 // For an example URI such as "content://com.example.android.pets/pets/3",
                 // the selection will be "_id=?" and the selection argument will be a
                 // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
                 //the ContentUris.parseId(uri) method , helps extract the # part of the uri
-                //the String.valueOf() method , converts the int value to a string
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
-                // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                //
+                // The row comes from the pet cache when it was queried lately, otherwise the
+                // query is performed and its row is cached.
+                long petId = ContentUris.parseId(uri);
+                Object[] petRow = mPetCache.get(petId);
+                if (petRow == null) {
+                    petRow = queryPetRow(database, petId);
+                }
+                cursor = buildPetCursor(projection, petRow);
+                break;
+            case PET_SEARCH:
+                // For the PET_SEARCH code the search terms are the last segment of the uri,
+                // selection and sort order don't apply since the results come ranked.
+                cursor = searchPets(database, uri, projection);
+                // the results change whenever any pet changes
+                uri = PetEntry.CONTENT_URI;
+                break;
+            case PET_STATS:
+                // For the PET_STATS code the summary table is read, its size only depends on
+                // the number of genders and breeds
+                cursor = database.query("(" + STATS_QUERY + ")", projection, selection,
+                        selectionArgs, null, null, sortOrder);
+                // the statistics change whenever any pet changes
+                uri = PetEntry.CONTENT_URI;
+                break;
+            case PET_CHANGES:
+                // For the PET_CHANGES code the changes after the since parameter are read in
+                // sequence order, which is a range of the rowid
+                if (sortOrder != null) {
+                    throw new IllegalArgumentException("The changes come in sequence order " + uri);
+                }
+                String since = uri.getQueryParameter(QUERY_PARAMETER_SINCE);
+                String changesLimit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+                selection = appendSelection(selection, PetChangeEntry.COLUMN_SEQUENCE + ">?");
+                selectionArgs = appendSelectionArgs(selectionArgs, since == null
+                        ? "0" : String.valueOf(parseQueryParameter(uri, QUERY_PARAMETER_SINCE, since)));
+                cursor = database.query(PetChangeEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, PetChangeEntry.COLUMN_SEQUENCE + " ASC", changesLimit == null
+                                ? null : String.valueOf(parseQueryParameter(uri, QUERY_PARAMETER_LIMIT, changesLimit)));
+                // the log grows whenever any pet changes
+                uri = PetEntry.CONTENT_URI;
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -106,18 +389,594 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * The SQL and arguments of a PETS query, see buildPetsQuery().
+     */
+    static final class PetsQuery {
+        final String mSql;
+        final String[] mArgs;
+
+        PetsQuery(String sql, String[] args) {
+            mSql = sql;
+            mArgs = args;
+        }
+    }
+
+    /**
+     * Builds the SQL of a PETS query with the limit, after and sort parameters of the uri
+     * applied. Package private so the query plan tests explain the exact SQL of the provider.
+     */
+    static PetsQuery buildPetsQuery(Uri uri, String[] projection, String selection,
+                                    String[] selectionArgs, String sortOrder) {
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        String after = uri.getQueryParameter(QUERY_PARAMETER_AFTER);
+        String sort = uri.getQueryParameter(QUERY_PARAMETER_SORT);
+        if (limit != null) {
+            limit = String.valueOf(parseQueryParameter(uri, QUERY_PARAMETER_LIMIT, limit));
+        }
+        if (sort != null) {
+            PetSort petSort = SORTS.get(sort);
+            if (petSort == null) {
+                throw new IllegalArgumentException("Unknown sort " + sort + " in " + uri);
+            }
+            if (sortOrder != null) {
+                throw new IllegalArgumentException("sort can't be used with a sort order " + uri);
+            }
+            selection = appendSelection(selection, petSort.notDeleted());
+            if (after != null) {
+                String afterKey = uri.getQueryParameter(QUERY_PARAMETER_AFTER_KEY);
+                selection = appendSelection(selection, petSort.after(afterKey));
+                selectionArgs = appendSelectionArgs(selectionArgs, petSort.afterArgs(afterKey,
+                        parseQueryParameter(uri, QUERY_PARAMETER_AFTER, after)));
+            }
+            sortOrder = petSort.orderBy();
+        } else {
+            selection = appendSelection(selection, NOT_DELETED);
+            if (after != null) {
+                if (sortOrder != null && !sortOrder.equals(PetEntry._ID + " ASC")) {
+                    throw new IllegalArgumentException("after can only be used with the _id order " + uri);
+                }
+                selection = appendSelection(selection, PetEntry._ID + ">?");
+                selectionArgs = appendSelectionArgs(selectionArgs,
+                        String.valueOf(parseQueryParameter(uri, QUERY_PARAMETER_AFTER, after)));
+            }
+        }
+        if ((limit != null || after != null) && sortOrder == null) {
+            sortOrder = PetEntry._ID + " ASC";
+        }
+        return new PetsQuery(SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME,
+                projection, selection, null, null, sortOrder, limit), selectionArgs);
+    }
+
+    /**
+     * Queries all the PET_COLUMNS of one pet and adds the row to the pet cache.
+     * Returns null when there is no pet with that id.
+     */
+    private Object[] queryPetRow(SQLiteDatabase database, long petId) {
+        long generation;
+        synchronized (mPetCache) {
+            generation = mPetCacheGeneration;
+        }
+
+        Object[] petRow = null;
+        // This will perform a query on the pets table where the _id equals 3 to return a
+        // Cursor containing that row of the table.
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, PET_COLUMNS,
+                PetEntry._ID + "=? AND " + NOT_DELETED, new String[] { String.valueOf(petId) },
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                petRow = new Object[PET_COLUMNS.length];
+                for (int i = 0; i < petRow.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_NULL:
+                            petRow[i] = null;
+                            break;
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            petRow[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            petRow[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            petRow[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            petRow[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        //a write that committed while we were reading may have made this row stale
+        synchronized (mPetCache) {
+            if (petRow != null && generation == mPetCacheGeneration) {
+                mPetCache.put(petId, petRow);
+            }
+        }
+        return petRow;
+    }
+
+    /**
+     * Builds a cursor holding the given pet row (or no row when it is null) with the columns
+     * of the projection.
+     */
+    private static Cursor buildPetCursor(String[] projection, Object[] petRow) {
+        if (projection == null) {
+            projection = PET_COLUMNS;
+        }
+        int[] columnIndexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columnIndexes[i] = Arrays.asList(PET_COLUMNS).indexOf(projection[i]);
+            if (columnIndexes[i] == -1) {
+                throw new IllegalArgumentException("Unknown column " + projection[i]);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (petRow != null) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = petRow[columnIndexes[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    //drops one pet from the pet cache, without allocating an array of ids
+    private void invalidatePetCache(long id) {
+        synchronized (mPetCache) {
+            mPetCacheGeneration++;
+            mPetCache.remove(id);
+        }
+    }
+
+    /**
+     * Drops the given pets from the pet cache, or every cached pet when ids is null.
+     * Has to be called after the write that changed them is committed.
+     */
+    private void invalidatePetCache(long[] ids) {
+        synchronized (mPetCache) {
+            mPetCacheGeneration++;
+            if (ids == null) {
+                mPetCache.evictAll();
+            } else {
+                for (long id : ids) {
+                    mPetCache.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers the METHOD_ calls of {@link PetsContract}. Unlike the other entry points, call()
+     * isn't guarded by the permission of the provider, so it checks it here.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        getContext().enforceCallingOrSelfPermission(PERMISSION_ACCESS_PETS, "call " + method);
+        if (METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(KEY_CACHE_HITS, mPetCache.hitCount());
+            stats.putInt(KEY_CACHE_MISSES, mPetCache.missCount());
+            stats.putInt(KEY_CACHE_SIZE, mPetCache.size());
+            return stats;
+        }
+        if (METHOD_CHECK_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(KEY_STATS_MISMATCHES, checkStats());
+            return result;
+        }
+        if (METHOD_SET_SLOW_THRESHOLD.equals(method)) {
+            //arg is the new threshold in milliseconds
+            try {
+                mMetrics.setSlowThresholdMillis(Long.parseLong(arg));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid slow threshold " + arg);
+            }
+            return null;
+        }
+        if (METHOD_REGISTER_CHANGE_CONSUMER.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(KEY_CHANGE_SEQUENCE, registerChangeConsumer(arg,
+                    extras != null && extras.getBoolean(KEY_CHANGE_REPLAY)));
+            return result;
+        }
+        if (METHOD_ACK_CHANGES.equals(method)) {
+            if (extras == null || !extras.containsKey(KEY_CHANGE_SEQUENCE)) {
+                throw new IllegalArgumentException("Acknowledgement without " + KEY_CHANGE_SEQUENCE);
+            }
+            ackChanges(arg, extras.getLong(KEY_CHANGE_SEQUENCE));
+            return null;
+        }
+        if (METHOD_UNREGISTER_CHANGE_CONSUMER.equals(method)) {
+            unregisterChangeConsumer(arg);
+            return null;
+        }
+        if (METHOD_BATCH.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Batch without operations");
+            }
+            return runBatch(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Runs the operations of a {@link PetsContract.PetBatch} in order and answers their results
+     * in one bundle. Batches that write run in one transaction with their notifications sent
+     * after the commit, batches that only read leave the pet cache as it is.
+     */
+    private Bundle runBatch(Bundle extras) {
+        final int[] operations = extras.getIntArray(KEY_BATCH_OPERATIONS);
+        final long[] ids = extras.getLongArray(KEY_BATCH_IDS);
+        final String[] names = extras.getStringArray(KEY_BATCH_NAMES);
+        final String[] breeds = extras.getStringArray(KEY_BATCH_BREEDS);
+        final int[] genders = extras.getIntArray(KEY_BATCH_GENDERS);
+        final int[] weights = extras.getIntArray(KEY_BATCH_WEIGHTS);
+        final boolean[] hasGenders = extras.getBooleanArray(KEY_BATCH_HAS_GENDERS);
+        final boolean[] hasWeights = extras.getBooleanArray(KEY_BATCH_HAS_WEIGHTS);
+        if (operations == null || ids == null || names == null || breeds == null || genders == null
+                || weights == null || hasGenders == null || hasWeights == null) {
+            throw new IllegalArgumentException("Batch without operations");
+        }
+        final int size = operations.length;
+        if (ids.length != size || names.length != size || breeds.length != size || genders.length != size
+                || weights.length != size || hasGenders.length != size || hasWeights.length != size) {
+            throw new IllegalArgumentException("Batch arrays of different lengths");
+        }
+
+        //the answer reuses the value arrays, the values of a get replace the ones sent with it
+        final long[] results = new long[size];
+        Runnable batch = new Runnable() {
+            @Override
+            public void run() {
+                PetRecord pet = new PetRecord();
+                for (int i = 0; i < size; i++) {
+                    switch (operations[i]) {
+                        case PetBatch.OPERATION_INSERT:
+                            results[i] = insertPet(batchPet(pet, i, names, breeds, genders, weights,
+                                    hasGenders, hasWeights));
+                            break;
+                        case PetBatch.OPERATION_UPDATE:
+                            results[i] = updatePet(ids[i], batchPet(pet, i, names, breeds, genders, weights,
+                                    hasGenders, hasWeights));
+                            break;
+                        case PetBatch.OPERATION_DELETE:
+                            results[i] = deletePetById(ids[i]);
+                            break;
+                        case PetBatch.OPERATION_GET:
+                            results[i] = getPet(ids[i], i, names, breeds, genders, weights, hasGenders,
+                                    hasWeights);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown batch operation " + operations[i]);
+                    }
+                }
+            }
+        };
+        boolean writes = false;
+        for (int operation : operations) {
+            writes |= operation != PetBatch.OPERATION_GET;
+        }
+        if (writes) {
+            runInTransaction(batch);
+        } else {
+            batch.run();
+        }
+
+        Bundle answer = new Bundle();
+        answer.putLongArray(KEY_BATCH_RESULTS, results);
+        answer.putStringArray(KEY_BATCH_NAMES, names);
+        answer.putStringArray(KEY_BATCH_BREEDS, breeds);
+        answer.putIntArray(KEY_BATCH_GENDERS, genders);
+        answer.putIntArray(KEY_BATCH_WEIGHTS, weights);
+        answer.putBooleanArray(KEY_BATCH_HAS_GENDERS, hasGenders);
+        answer.putBooleanArray(KEY_BATCH_HAS_WEIGHTS, hasWeights);
+        return answer;
+    }
+
+    //sets the record to the values at index i of the batch arrays, missing ones cleared
+    private static PetRecord batchPet(PetRecord pet, int i, String[] names, String[] breeds, int[] genders,
+            int[] weights, boolean[] hasGenders, boolean[] hasWeights) {
+        pet.setName(names[i]).setBreed(breeds[i]);
+        if (hasGenders[i]) {
+            pet.setGender(genders[i]);
+        } else {
+            pet.clearGender();
+        }
+        if (hasWeights[i]) {
+            pet.setWeight(weights[i]);
+        } else {
+            pet.clearWeight();
+        }
+        return pet;
+    }
+
+    //deletes one pet like delete() on its uri does, and returns the number of deleted rows
+    int deletePetById(long id) {
+        long startTime = System.nanoTime();
+        int rows = deletePet(PetEntry.CONTENT_URI, PetEntry._ID + "=?", new String[] {String.valueOf(id)});
+        mMetrics.record(PetProviderMetrics.DELETE, PET_ID, PetEntry.CONTENT_URI, rows, startTime);
+        return rows;
+    }
+
+    //reads one pet through the pet cache into index i of the arrays, returns 1 when it exists
+    private int getPet(long id, int i, String[] names, String[] breeds, int[] genders, int[] weights,
+            boolean[] hasGenders, boolean[] hasWeights) {
+        long startTime = System.nanoTime();
+        Object[] petRow = mPetCache.get(id);
+        if (petRow == null) {
+            petRow = queryPetRow(mDbHelper.getReadableDatabase(), id);
+        }
+        mMetrics.record(PetProviderMetrics.QUERY, PET_ID, PetEntry.CONTENT_URI, petRow == null ? 0 : 1, startTime);
+        if (petRow == null) {
+            names[i] = null;
+            breeds[i] = null;
+            genders[i] = 0;
+            weights[i] = 0;
+            hasGenders[i] = false;
+            hasWeights[i] = false;
+            return 0;
+        }
+        //the row holds the PET_COLUMNS values in order
+        names[i] = (String) petRow[1];
+        breeds[i] = (String) petRow[2];
+        hasGenders[i] = petRow[3] != null;
+        genders[i] = hasGenders[i] ? ((Number) petRow[3]).intValue() : 0;
+        hasWeights[i] = petRow[4] != null;
+        weights[i] = hasWeights[i] ? ((Number) petRow[4]).intValue() : 0;
+        return 1;
+    }
+
+    /**
+     * Registers a change log consumer and returns the sequence it has acknowledged. A new
+     * consumer starts after the latest change, it is expected to read the pets it mirrors
+     * once before following the log, unless replay logs every pet as updated for it. The
+     * replayed entries are seen by the other consumers too, as updates of unchanged pets.
+     */
+    long registerChangeConsumer(String consumer, boolean replay) {
+        checkConsumerName(consumer);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] consumerArgs = {consumer};
+        database.beginTransaction();
+        try {
+            //sqlite_sequence keeps the latest sequence even once the log is compacted away
+            database.execSQL("INSERT OR IGNORE INTO " + PetChangeEntry.CONSUMERS_TABLE_NAME + " (" +
+                    PetChangeEntry.COLUMN_CONSUMER_NAME + "," + PetChangeEntry.COLUMN_ACKED_SEQUENCE +
+                    ") VALUES (?,IFNULL((SELECT seq FROM sqlite_sequence WHERE name='" +
+                    PetChangeEntry.TABLE_NAME + "'),0))", consumerArgs);
+            long acked = DatabaseUtils.longForQuery(database, "SELECT " + PetChangeEntry.COLUMN_ACKED_SEQUENCE +
+                    " FROM " + PetChangeEntry.CONSUMERS_TABLE_NAME + " WHERE " +
+                    PetChangeEntry.COLUMN_CONSUMER_NAME + "=?", consumerArgs);
+            if (replay && DatabaseUtils.longForQuery(database, "SELECT changes()", null) == 1) {
+                database.execSQL("INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" +
+                        PetChangeEntry.COLUMN_PET_ID + "," + PetChangeEntry.COLUMN_OPERATION + "," +
+                        PetChangeEntry.COLUMN_CHANGED_AT + ") SELECT " + PetEntry._ID + ",'" + CHANGE_UPDATE +
+                        "'," + System.currentTimeMillis() + " FROM " + PetEntry.TABLE_NAME + " WHERE " + NOT_DELETED);
+            }
+            database.setTransactionSuccessful();
+            return acked;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Moves the acknowledged sequence of a consumer forward, never back, and compacts the log.
+     */
+    void ackChanges(String consumer, long sequence) {
+        checkConsumerName(consumer);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(PetChangeEntry.COLUMN_ACKED_SEQUENCE, sequence);
+            int updated = database.update(PetChangeEntry.CONSUMERS_TABLE_NAME, values,
+                    PetChangeEntry.COLUMN_CONSUMER_NAME + "=? AND " + PetChangeEntry.COLUMN_ACKED_SEQUENCE + "<?",
+                    new String[] {consumer, String.valueOf(sequence)});
+            if (updated == 0 && DatabaseUtils.queryNumEntries(database, PetChangeEntry.CONSUMERS_TABLE_NAME,
+                    PetChangeEntry.COLUMN_CONSUMER_NAME + "=?", new String[] {consumer}) == 0) {
+                throw new IllegalArgumentException("Unknown change consumer " + consumer);
+            }
+            compactChanges(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private void unregisterChangeConsumer(String consumer) {
+        checkConsumerName(consumer);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(PetChangeEntry.CONSUMERS_TABLE_NAME, PetChangeEntry.COLUMN_CONSUMER_NAME + "=?",
+                    new String[] {consumer});
+            compactChanges(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Removes the changes every consumer acknowledged, or all of them once there is no consumer
+     * left. The sequence is the rowid, so this deletes one range at the start of the table.
+     */
+    private static void compactChanges(SQLiteDatabase database) {
+        database.delete(PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_SEQUENCE + "<=IFNULL((SELECT MIN(" +
+                PetChangeEntry.COLUMN_ACKED_SEQUENCE + ") FROM " + PetChangeEntry.CONSUMERS_TABLE_NAME +
+                "),(SELECT MAX(" + PetChangeEntry.COLUMN_SEQUENCE + ") FROM " + PetChangeEntry.TABLE_NAME + "))",
+                null);
+    }
+
+    private static void checkConsumerName(String consumer) {
+        if (TextUtils.isEmpty(consumer)) {
+            throw new IllegalArgumentException("A change consumer needs a name");
+        }
+    }
+
+    //the MIN or MAX weight of the pets counted by the PetStats row s, through the indexes
+    private static String weightExtreme(String function) {
+        String extreme = "SELECT " + function + "(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " +
+                PetEntry.TABLE_NAME + " WHERE " + NOT_DELETED;
+        return "(CASE " + PetStatsEntry.COLUMN_DIMENSION +
+                " WHEN '" + PetStatsEntry.DIMENSION_GENDER + "' THEN (" +
+                groupWeightExtreme(extreme, PetEntry.COLUMN_PET_GENDER) + ")" +
+                " WHEN '" + PetStatsEntry.DIMENSION_BREED + "' THEN (" +
+                groupWeightExtreme(extreme, PetEntry.COLUMN_PET_BREED) + ")" +
+                " ELSE (" + extreme + ") END)";
+    }
+
+    //the extreme of the gender or breed group of the PetStats row s. The empty key holds the
+    //pets without a value, matched with the key PetDbHelper.statsKey() writes, the others
+    //compare the column itself so its index is used
+    private static String groupWeightExtreme(String extreme, String column) {
+        String key = "s." + PetStatsEntry.COLUMN_KEY;
+        return "CASE " + key + " WHEN '' THEN (" + extreme + " AND " + PetDbHelper.statsKey(column) +
+                "='') ELSE (" + extreme + " AND " + column + "=" + key + ") END";
+    }
+
+    /**
+     * Recomputes the statistics from the pets table and compares them with the ones kept by the
+     * triggers. Returns the number of rows that differ on either side, 0 when they agree.
+     * This scans the whole table, so it is meant for checks, not for reading the statistics.
+     */
+    private int checkStats() {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        String stored = "SELECT " + PetStatsEntry.COLUMN_DIMENSION + "," + PetStatsEntry.COLUMN_KEY +
+                "," + PetStatsEntry.COLUMN_COUNT + "," + PetStatsEntry.COLUMN_WEIGHT_COUNT + "," +
+                PetStatsEntry.COLUMN_WEIGHT_SUM + " FROM " + PetStatsEntry.TABLE_NAME;
+        String recomputed = "SELECT * FROM (" + PetDbHelper.statsRecomputeQuery(NOT_DELETED) + ")";
+        //both sides are read by one statement, so they see the same version of the database
+        Cursor cursor = database.rawQuery("SELECT * FROM (" + stored + " EXCEPT " + recomputed +
+                ") UNION ALL SELECT * FROM (" + recomputed + " EXCEPT " + stored + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                Log.w(LOG_TAG, "pet statistics differ at " + cursor.getString(0) + "/" +
+                        cursor.getString(1) + ": count " + cursor.getLong(2) + ", weight count " +
+                        cursor.getLong(3) + ", weight sum " + cursor.getLong(4));
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs a full text search for the terms in the uri. Every term is matched as a word prefix
+     * and pets matching all the terms in their name rank before pets matching through the breed.
+     * Each rank reads at most limit rows from the full text index, so the cost of a search does
+     * not grow with the size of the table.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection) {
+        String limitParameter = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        long limit = limitParameter == null
+                ? SEARCH_DEFAULT_LIMIT : parseQueryParameter(uri, QUERY_PARAMETER_LIMIT, limitParameter);
+
+        //the projection ends up in the sql, so only the pets columns are accepted
+        if (projection == null) {
+            projection = PET_COLUMNS;
+        }
+        for (String column : projection) {
+            if (!Arrays.asList(PET_COLUMNS).contains(column)) {
+                throw new IllegalArgumentException("Cannot search for column " + column);
+            }
+        }
+
+        //every word of the terms becomes a prefix query, once for any column and once for the name
+        StringBuilder anyColumnMatch = new StringBuilder();
+        StringBuilder nameMatch = new StringBuilder();
+        for (String term : uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+")) {
+            if (!term.isEmpty()) {
+                anyColumnMatch.append(term).append("* ");
+                nameMatch.append(PetSearchEntry.COLUMN_PET_NAME).append(':').append(term).append("* ");
+            }
+        }
+        if (anyColumnMatch.length() == 0) {
+            //nothing to search for, return an empty cursor with the asked for columns
+            return database.query(PetEntry.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+
+        String columns = TextUtils.join(",", projection);
+        String sql = "SELECT " + columns + " FROM (" +
+                buildSearchRankQuery(0, limit) + " UNION ALL " + buildSearchRankQuery(1, limit) +
+                ") GROUP BY " + PetEntry._ID + " ORDER BY MIN(rank), " + PetEntry._ID + " LIMIT " + limit;
+        return database.rawQuery(sql, new String[] { nameMatch.toString().trim(),
+                anyColumnMatch.toString().trim() });
+    }
+
+    /**
+     * Builds the select of one rank of search results, the pets whose docid matches the
+     * full text query bound to its only argument.
+     */
+    private static String buildSearchRankQuery(int rank, long limit) {
+        return "SELECT *, " + rank + " AS rank FROM " + PetEntry.TABLE_NAME + " WHERE " +
+                PetEntry._ID + " IN (SELECT " + PetSearchEntry.COLUMN_DOCID + " FROM " +
+                PetSearchEntry.TABLE_NAME + " WHERE " + PetSearchEntry.TABLE_NAME + " MATCH ? LIMIT " +
+                limit + ")";
+    }
+
+    /**
+     * Parses a numeric query parameter, rejecting anything that is not a non negative number.
+     */
+    private static long parseQueryParameter(Uri uri, String name, String value) {
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the exception below
+        }
+        throw new IllegalArgumentException("invalid " + name + " parameter in " + uri);
+    }
+
+    /**
+     * Adds an extra condition to a (possibly null) selection, the two are combined with AND.
+     */
+    private static String appendSelection(String selection, String condition) {
+        if (selection == null || selection.isEmpty()) {
+            return condition;
+        }
+        return "(" + selection + ") AND " + condition;
+    }
+
+    /**
+     * Adds extra arguments after a (possibly null) array of selection arguments.
+     */
+    private static String[] appendSelectionArgs(String[] selectionArgs, String... extraArgs) {
+        if (selectionArgs == null) {
+            return extraArgs;
+        }
+        String[] combined = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, combined, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, combined, selectionArgs.length, extraArgs.length);
+        return combined;
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startTime = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        Uri petUri;
         switch (match) {
             case PETS:
-                return insertPet(uri, contentValues);
+                petUri = insertPet(uri, contentValues);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
+        mMetrics.record(PetProviderMetrics.INSERT, match, uri, 1, startTime);
+        return petUri;
     }
 
     /**
@@ -127,32 +986,375 @@ public class PetProvider extends ContentProvider {
     private Uri insertPet(Uri uri, ContentValues values) {
 
         //performing sanity checks(data validation) on the values inserted
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        PetValidator.validate(values);
 
-        if (breed.isEmpty()){
-            values.put(PetEntry.COLUMN_PET_BREED, "Unknown");
+        //(DONE) TODO: Insert a new pet into the pets database table with the given ContentValues
+        //initialize a writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        //perform the insert command and get the row id resulting
+        long rowId = database.insert(PetEntry.TABLE_NAME, null, values);
+
+        //here we notify listeners of the new row
+        notifyChange(PetEntry.buildChangeUri(rowId, CHANGE_INSERT));
+
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(uri, rowId);
+    }
+
+    /**
+     * Returns the provider running in this process, for the typed {@link PetRecord} writes.
+     * Those skip ContentValues and the binder, so they are only there for code in the app.
+     */
+    public static PetProvider getLocalProvider(Context context) {
+        ContentProviderClient client = context.getContentResolver()
+                .acquireContentProviderClient(CONTENT_AUTHORITY);
+        try {
+            return (PetProvider) client.getLocalContentProvider();
+        } finally {
+            client.release();
         }
-        if (!name.isEmpty()){
+    }
 
-            //(DONE) TODO: Insert a new pet into the pets database table with the given ContentValues
-            //initialize a writable database
-            SQLiteDatabase database = mDbHelper.getWritableDatabase();
-            //perform the insert command and get the row id resulting
-            long rowId = database.insert(PetEntry.TABLE_NAME, null, values);
+    /**
+     * Inserts a pet from a {@link PetRecord}, checked like insert() does, and returns its id.
+     * The values are bound as they are into a statement compiled once, nothing gets boxed.
+     */
+    public long insertPet(PetRecord pet) {
+        long startTime = System.nanoTime();
+        PetValidator.validate(pet);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long rowId;
+        //joins the transaction of a runInTransaction() caller, or holds the connection on its own
+        database.beginTransactionNonExclusive();
+        try {
+            synchronized (this) {
+                if (mInsertStatement == null) {
+                    mInsertStatement = database.compileStatement(BULK_INSERT_STATEMENT);
+                }
+            }
+            synchronized (mInsertStatement) {
+                bindPet(mInsertStatement, pet);
+                rowId = mInsertStatement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(PetEntry.buildChangeUri(rowId, CHANGE_INSERT));
+        mMetrics.record(PetProviderMetrics.INSERT, PETS, PetEntry.CONTENT_URI, 1, startTime);
+        return rowId;
+    }
+
+    /**
+     * Updates every value of the pet with the given id from a {@link PetRecord}, checked like
+     * insert() does. Returns the number of updated rows, 0 or 1.
+     */
+    public int updatePet(long id, PetRecord pet) {
+        long startTime = System.nanoTime();
+        PetValidator.validate(pet);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int updatedRows;
+        //the connection first, then the statement, like insertPet()
+        database.beginTransactionNonExclusive();
+        try {
+            synchronized (this) {
+                if (mUpdateStatement == null) {
+                    mUpdateStatement = database.compileStatement(UPDATE_BY_ID_STATEMENT);
+                }
+            }
+            synchronized (mUpdateStatement) {
+                bindPet(mUpdateStatement, pet);
+                mUpdateStatement.bindLong(5, id);
+                updatedRows = mUpdateStatement.executeUpdateDelete();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-            //here we notify listeners that the uri has changed
+        if (updatedRows != 0) {
+            invalidatePetCache(id);
+            notifyChange(PetEntry.buildChangeUri(id, CHANGE_UPDATE));
+        }
+        mMetrics.record(PetProviderMetrics.UPDATE, PET_ID, PetEntry.CONTENT_URI, updatedRows, startTime);
+        return updatedRows;
+    }
+
+    /**
+     * Sets the photo file name of the pet with the given id, the files themselves are managed
+     * by {@link PetPhotos}. Returns the name of the photo no pet uses anymore: the replaced
+     * one, or the given one when there is no such pet. Null when there is none.
+     */
+    String updatePetPhoto(long id, String photo) {
+        long startTime = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String[] selectionArgs = {String.valueOf(id)};
+        String unusedPhoto;
+        int updatedRows;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PET_PHOTO},
+                    PetEntry._ID + "=? AND " + NOT_DELETED, selectionArgs, null, null, null);
+            try {
+                unusedPhoto = cursor.moveToFirst() ? cursor.getString(0) : photo;
+            } finally {
+                cursor.close();
+            }
+            ContentValues values = new ContentValues();
+            values.put(PetEntry.COLUMN_PET_PHOTO, photo);
+            updatedRows = database.update(PetEntry.TABLE_NAME, values,
+                    PetEntry._ID + "=? AND " + NOT_DELETED, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (updatedRows != 0) {
+            invalidatePetCache(id);
+            notifyChange(PetEntry.buildChangeUri(id, CHANGE_UPDATE));
+        }
+        mMetrics.record(PetProviderMetrics.UPDATE, PET_ID, PetEntry.CONTENT_URI, updatedRows, startTime);
+        return unusedPhoto;
+    }
+
+    /**
+     * Insert many pets in a single transaction. Every row is validated the same way insertPet()
+     * does before anything is written, so a bad row rejects the whole batch. Listeners are
+     * notified once for the batch instead of once per row.
+     */
+    @Override
+    public int bulkInsert(Uri uri, final ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        return insertPetRows(uri, new PetRows(values.length) {
+            @Override
+            void validate(int row) {
+                PetValidator.validate(values[row]);
+            }
+
+            @Override
+            void bind(SQLiteStatement statement, int row) {
+                bindPet(statement, values[row]);
+            }
+        }, startNanos);
+    }
+
+    /**
+     * The typed bulkInsert(), inserting the first count records in one transaction with a single
+     * notification. The records are bound as they are, so a large generated dataset loads
+     * without a ContentValues per row.
+     */
+    int insertPets(final PetRecord[] pets, int count) {
+        long startNanos = System.nanoTime();
+        return insertPetRows(PetEntry.CONTENT_URI, new PetRows(count) {
+            @Override
+            void validate(int row) {
+                PetValidator.validate(pets[row]);
+            }
+
+            @Override
+            void bind(SQLiteStatement statement, int row) {
+                bindPet(statement, pets[row]);
+            }
+        }, startNanos);
+    }
+
+    /**
+     * The rows of a bulk insert, validated and bound by their index.
+     */
+    private abstract static class PetRows {
+
+        final int mCount;
+
+        PetRows(int count) {
+            mCount = count;
+        }
+
+        abstract void validate(int row);
+
+        abstract void bind(SQLiteStatement statement, int row);
+    }
+
+    /**
+     * Validates every row, then inserts them all in one transaction through the compiled
+     * {@link #BULK_INSERT_STATEMENT} and notifies uri once.
+     */
+    private int insertPetRows(Uri uri, PetRows rows, long startNanos) {
+        if (rows.mCount == 0) {
+            return 0;
+        }
+        //validate everything up front so we never leave a half written batch behind
+        for (int i = 0; i < rows.mCount; i++) {
+            rows.validate(i);
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        //the statement is compiled once and only re-bound for every row
+        SQLiteStatement statement = database.compileStatement(BULK_INSERT_STATEMENT);
+        int insertedRows = 0;
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < rows.mCount; i++) {
+                rows.bind(statement, i);
+                if (statement.executeInsert() != -1) {
+                    insertedRows++;
+                }
+                //between chunks we let readers (like the catalog loader) get in
+                if ((i + 1) % BULK_INSERT_CHUNK_SIZE == 0) {
+                    database.yieldIfContendedSafely();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            statement.close();
+        }
+
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        Log.d(LOG_TAG, "bulkInsert: " + insertedRows + " rows in " + elapsed + " ms ("
+                + (insertedRows * 1000L / elapsed) + " rows/s)");
+
+        //one notification for the whole batch
+        if (insertedRows != 0) {
+            notifyChange(uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_CHANGE, CHANGE_INSERT).build());
+        }
+        mMetrics.record(PetProviderMetrics.BULK_INSERT, PETS, uri, insertedRows, startNanos);
+        return insertedRows;
+    }
+
+    /**
+     * Apply a list of insert/update/delete operations in one transaction. The batch is atomic
+     * only when none of its operations is a yield point: an operation marked with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)} lets a very large batch
+     * commit what it has done so far and let other connections in, and a later failure only
+     * rolls back the operations after the last such commit. Notifications for every touched uri
+     * are sent once, after the batch ends, whenever any part of it was committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        mPendingNotifications.set(changedUris);
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        //whether a yield point committed part of the batch, which stays even if the rest fails
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    committed = true;
+                }
+                //apply() resolves back references against the results we already have
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+
+            //rows cached while the batch was uncommitted may be stale, committed or rolled back
+            invalidatePetCache(null);
+
+            //tell listeners about what was committed once per uri, the uris of rolled back
+            //operations after the last yield are notified too, which only costs a reload
+            if (committed) {
+                for (Uri changedUri : changedUris) {
+                    getContext().getContentResolver().notifyChange(changedUri, null);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs the writes of the given runnable in one transaction, with their notifications sent
+     * once per uri after the commit like applyBatch() does. A write throwing rolls all of them
+     * back and the exception is rethrown. Used by {@link PetWriteQueue} to group commit writes.
+     */
+    void runInTransaction(Runnable writes) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        mPendingNotifications.set(changedUris);
+        database.beginTransaction();
+        try {
+            writes.run();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        //rows cached while the transaction was still uncommitted may be stale
+        invalidatePetCache(null);
+
+        for (Uri changedUri : changedUris) {
+            getContext().getContentResolver().notifyChange(changedUri, null);
+        }
+    }
+
+    /**
+     * Notify listeners that the given uri has changed. Inside applyBatch() and
+     * runInTransaction() the notification is deferred until the transaction commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
             //the observer is set to null so that by default the cursorAdapter is notified
             getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
 
-            // Once we know the ID of the new row in the table,
-            // return the new URI with the ID appended to the end of it
-            return ContentUris.withAppendedId(uri, rowId);
-        }else {
-            throw new IllegalArgumentException("invalid or empty name");
+    /**
+     * Binds a validated record to the name, breed, gender and weight parameters (1 to 4) of a
+     * compiled statement, a missing gender or weight as NULL.
+     */
+    private static void bindPet(SQLiteStatement statement, PetRecord pet) {
+        statement.bindString(1, pet.getName());
+        statement.bindString(2, pet.getBreed());
+        if (pet.hasGender()) {
+            statement.bindLong(3, pet.getGender());
+        } else {
+            statement.bindNull(3);
         }
+        if (pet.hasWeight()) {
+            statement.bindLong(4, pet.getWeight());
+        } else {
+            statement.bindNull(4);
+        }
+    }
 
+    /**
+     * Binds already validated values to the compiled {@link #BULK_INSERT_STATEMENT}.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_PET_NAME));
+        statement.bindString(2, values.getAsString(PetEntry.COLUMN_PET_BREED));
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null) {
+            statement.bindNull(3);
+        } else {
+            statement.bindLong(3, gender);
+        }
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if (weight == null) {
+            statement.bindNull(4);
+        } else {
+            statement.bindLong(4, weight);
+        }
     }
 
     /**
@@ -161,20 +1363,26 @@ public class PetProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long startTime = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int rows;
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rows = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rows = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mMetrics.record(PetProviderMetrics.UPDATE, match, uri, rows, startTime);
+        return rows;
     }
 
     /**
@@ -189,24 +1397,44 @@ public class PetProvider extends ContentProvider {
         String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
 
         if (breed.isEmpty()){
-            values.put(PetEntry.COLUMN_PET_BREED, "Unknown");
+            values.put(PetEntry.COLUMN_PET_BREED, PetValidator.DEFAULT_BREED);
         }
         //check if the contentValues is empty, if so we don`t update anything
         if (values.size() == 0){
             return 0;
         }
+        //deleting goes through delete(), and a deleted pet can't be brought back since it already
+        //left the full text index
+        if (values.containsKey(PetEntry.COLUMN_PET_DELETED)) {
+            throw new IllegalArgumentException("Cannot update " + PetEntry.COLUMN_PET_DELETED);
+        }
+        //photos are set through PetPhotos, which owns their files
+        if (values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Cannot update " + PetEntry.COLUMN_PET_PHOTO);
+        }
+        selection = appendSelection(selection, NOT_DELETED);
         if (!name.isEmpty()){
 
             //(DONE) TODO: Update the selected pets in the pets database table with the given ContentValues
             SQLiteDatabase database = mDbHelper.getWritableDatabase();
-            int resultRowNum = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+            int resultRowNum;
+            long[] changedIds;
+            //the ids are read in the same transaction as the update, so they are exactly the updated rows
+            database.beginTransaction();
+            try {
+                changedIds = queryChangedIds(database, selection, selectionArgs);
+                resultRowNum = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
 
             //if 1 or more rows are updated then we notify all listeners
             if (resultRowNum != 0){
 
-                //here we notify listeners that the uri has changed
-                //the observer is set to null so that by default the cursorAdapter is notified
-                getContext().getContentResolver().notifyChange(uri, null);
+                invalidatePetCache(changedIds);
+                //here we notify listeners of the changed rows
+                notifyRowChanges(changedIds, CHANGE_UPDATE);
             }
 
             //(DONE) TODO: Return the number of rows that were affected
@@ -221,20 +1449,26 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startTime = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int rows;
         switch (match) {
             case PETS:
-                return deletePet(uri, selection, selectionArgs);
+                rows = deletePet(uri, selection, selectionArgs);
+                break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
                 selection = PetEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return deletePet(uri, selection, selectionArgs);
+                rows = deletePet(uri, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mMetrics.record(PetProviderMetrics.DELETE, match, uri, rows, startTime);
+        return rows;
     }
 
     /**
@@ -245,18 +1479,317 @@ public class PetProvider extends ContentProvider {
     private int deletePet(Uri uri, String selection, String[] selectionArgs) {
 
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        int resultRowNum = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+        //the pets are only marked as deleted (tombstoned), which is a small update, and the
+        //write queue purges their rows later in the background
+        selection = appendSelection(selection, NOT_DELETED);
+        ContentValues tombstone = new ContentValues();
+        tombstone.put(PetEntry.COLUMN_PET_DELETED, 1);
+        int resultRowNum;
+        long[] changedIds;
+        //the ids are read in the same transaction as the delete, so they are exactly the deleted rows
+        database.beginTransaction();
+        try {
+            changedIds = queryChangedIds(database, selection, selectionArgs);
+            resultRowNum = database.update(PetEntry.TABLE_NAME, tombstone, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         //if 1 or more rows are updated then we notify all listeners
         if (resultRowNum != 0){
 
-            //here we notify listeners that the uri has changed
-            //the observer is set to null so that by default the cursorAdapter is notified
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidatePetCache(changedIds);
+            //here we notify listeners of the deleted rows
+            notifyRowChanges(changedIds, CHANGE_DELETE);
+            PetWriteQueue.getInstance(getContext()).schedulePurge();
         }
         return resultRowNum;
     }
 
+    /**
+     * Removes the rows of at most limit deleted pets for good and returns how many were removed.
+     * Nobody is notified, the rows were already gone for the readers. Only the write queue
+     * calls this, off the main thread.
+     *
+     * The row with the highest _id is kept even when it is deleted: SQLite gives a new row the
+     * highest _id plus one, so keeping it means an _id is never handed out twice and the change
+     * log and the sync map never mix up two pets.
+     */
+    int purgeDeletedPets(int limit) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String purged = PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME +
+                " WHERE " + PetEntry.COLUMN_PET_DELETED + "=1 AND " + PetEntry._ID + "<(SELECT MAX(" +
+                PetEntry._ID + ") FROM " + PetEntry.TABLE_NAME + ") LIMIT " + limit + ")";
+        ArrayList<String> photos = new ArrayList<>();
+        int purgedRows;
+        //the photos are read in the same transaction as the delete, so they are exactly the ones
+        //of the purged rows
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PET_PHOTO},
+                    purged + " AND " + PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL", null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    photos.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            purgedRows = database.delete(PetEntry.TABLE_NAME, purged, null);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        //the files go once the rows are gone for good
+        for (String photo : photos) {
+            PetPhotos.deletePhoto(getContext(), photo);
+        }
+        return purgedRows;
+    }
+
+    /**
+     * The database of the provider, for {@link PetSyncStore} which keeps the sync tables next to
+     * the pets. Pet rows are only written through the provider methods.
+     */
+    SQLiteDatabase getDatabase() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Gives at most the given number of free database pages back to the file system and returns
+     * how many it gave back, see {@link PetDbHelper#incrementalVacuum(int)}.
+     */
+    long vacuumFreePages(int pages) {
+        return mDbHelper.incrementalVacuum(pages);
+    }
+
+    //whether the database is in incremental auto vacuum mode, see PetDbHelper
+    boolean isIncrementalVacuum() {
+        return mDbHelper.isIncrementalVacuum();
+    }
+
+    /**
+     * Switches the database to incremental auto vacuum when it isn't yet, see
+     * {@link PetDbHelper#enableIncrementalVacuum()}.
+     */
+    boolean enableIncrementalVacuum() {
+        return mDbHelper.enableIncrementalVacuum();
+    }
+
+    /**
+     * Returns the ids of the pets matching the selection, or null when there are more than
+     * MAX_ROW_NOTIFICATIONS of them.
+     */
+    private static long[] queryChangedIds(SQLiteDatabase database, String selection,
+                                          String[] selectionArgs) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry._ID },
+                selection, selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Notifies the pets/<id> uri of every changed row along with the kind of change. When there
+     * were too many rows to list (ids is null) the whole pets uri is notified instead.
+     */
+    private void notifyRowChanges(long[] ids, String change) {
+        if (ids == null) {
+            notifyChange(PetEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change).build());
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(PetEntry.buildChangeUri(id, change));
+        }
+    }
+
+    /**
+     * Returns the export mime types of the pets uri that match the filter.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PETS) {
+            return null;
+        }
+        ArrayList<String> types = new ArrayList<>();
+        for (String type : EXPORT_MIME_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Opens an export of the pets uri as CSV or JSON, whichever matches the filter first. The
+     * rows are streamed through a pipe while they are read, so the size of the table doesn't
+     * matter. The opts bundle can hold the EXPORT_OPTION_ projection, selection, selection
+     * arguments and sort order, the limit and after parameters of the uri apply as in query().
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        ParcelFileDescriptor pipe = openExportPipe(uri, types[0], opts);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Opens a CSV export of all the pets, see openTypedAssetFile() for the other formats and
+     * for the options. The photo and thumbnail uris of a pet open its photo files.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        long startTime = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        if (!"r".equals(mode) || (match != PETS && match != PET_PHOTO && match != PET_THUMBNAIL)) {
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+        if (match == PETS) {
+            return openExportPipe(uri, MIME_TYPE_CSV, null);
+        }
+
+        //the pet id is the segment before photo or thumbnail
+        long petId = Long.parseLong(uri.getPathSegments().get(1));
+        Object[] petRow = mPetCache.get(petId);
+        if (petRow == null) {
+            petRow = queryPetRow(mDbHelper.getReadableDatabase(), petId);
+        }
+        String photo = petRow == null ? null : (String) petRow[PET_PHOTO_INDEX];
+        if (photo == null) {
+            throw new FileNotFoundException("No photo for " + uri);
+        }
+        File file = match == PET_PHOTO
+                ? PetPhotos.getPhotoFile(getContext(), photo) : PetPhotos.getThumbnailFile(getContext(), photo);
+        ParcelFileDescriptor descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        mMetrics.record(PetProviderMetrics.OPEN_FILE, match, uri, 1, startTime);
+        return descriptor;
+    }
+
+    /**
+     * Opens the read side of a pipe the export is written to on a background thread. From API
+     * 19 the pipe is a reliable one, so an export that fails is closed with its error and the
+     * reader gets an IOException from ParcelFileDescriptor.checkError() instead of a stream that
+     * looks complete. Older readers only see the stream end early.
+     */
+    private ParcelFileDescriptor openExportPipe(final Uri uri, final String mimeType, final Bundle opts)
+            throws FileNotFoundException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return openPipeHelper(uri, mimeType, opts, null, mExportPipeWriter);
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("failure making pipe");
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                exportPets(pipe[1], uri, mimeType, opts);
+                try {
+                    //does nothing after closeWithError()
+                    pipe[1].close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "failure closing pipe", e);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    /**
+     * Writes the pets the options select to the pipe. With the default _id order the table is
+     * read in EXPORT_CHUNK_SIZE pages on _id, every page being a short query of its own, so no
+     * cursor window is ever refilled by stepping over the rows already written. Rows written
+     * while the export runs are seen at most once. Any other order is read in one query.
+     */
+    private void exportPets(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts) {
+        long startTime = System.nanoTime();
+        String[] projection = null;
+        String selection = null;
+        String[] selectionArgs = null;
+        String sortOrder = null;
+        if (opts != null) {
+            projection = opts.getStringArray(EXPORT_OPTION_PROJECTION);
+            selection = opts.getString(EXPORT_OPTION_SELECTION);
+            selectionArgs = opts.getStringArray(EXPORT_OPTION_SELECTION_ARGS);
+            sortOrder = opts.getString(EXPORT_OPTION_SORT_ORDER);
+        }
+        boolean pageOnId = (sortOrder == null || sortOrder.equals(PetEntry._ID + " ASC"))
+                && uri.getQueryParameter(QUERY_PARAMETER_LIMIT) == null
+                && uri.getQueryParameter(QUERY_PARAMETER_SORT) == null
+                && (projection == null || Arrays.asList(projection).contains(PetEntry._ID));
+
+        int rows = 0;
+        Cursor cursor = null;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getFileDescriptor()), "UTF-8"));
+            PetExportWriter export = new PetExportWriter(writer, mimeType);
+            if (pageOnId) {
+                String after = uri.getQueryParameter(QUERY_PARAMETER_AFTER);
+                long afterId = after == null ? 0 : parseQueryParameter(uri, QUERY_PARAMETER_AFTER, after);
+                while (true) {
+                    cursor = queryMatch(PETS, PetEntry.buildPageUri(EXPORT_CHUNK_SIZE, afterId),
+                            projection, selection, selectionArgs, null);
+                    if (export.writeRows(cursor) < EXPORT_CHUNK_SIZE) {
+                        break;
+                    }
+                    cursor.moveToLast();
+                    afterId = cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID));
+                    cursor.close();
+                    cursor = null;
+                }
+            } else {
+                cursor = queryMatch(PETS, uri, projection, selection, selectionArgs, sortOrder);
+                export.writeRows(cursor);
+            }
+            rows = export.finish();
+        } catch (IOException e) {
+            //the reader closed its end of the pipe before the end of the export
+            Log.w(LOG_TAG, "export of " + uri + " stopped", e);
+        } catch (RuntimeException e) {
+            //a bad selection or projection, the pipe thread has no caller to throw to so the
+            //error goes to the reader through the pipe
+            Log.e(LOG_TAG, "export of " + uri + " failed", e);
+            closeWithError(output, e.toString());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        mMetrics.record(PetProviderMetrics.QUERY, PETS, uri, rows, startTime);
+    }
+
+    //closes the write side of a reliable pipe with the error, see openExportPipe()
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void closeWithError(ParcelFileDescriptor output, String message) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        try {
+            output.closeWithError(message);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "failure closing pipe", e);
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -264,4 +1797,50 @@ public class PetProvider extends ContentProvider {
     public String getType(Uri uri) {
         return null;
     }
+
+    /**
+     * One of the orders of the sort query parameter, and the keyset condition continuing it
+     * after a row. The name, breed and weight orders come from their pets_*_sort_idx index,
+     * which starts with the deleted column and ends with _id, so the not deleted filter, the
+     * order and the page continuation are all one range of the index and no page sorts the
+     * table. The _id orders read the table itself.
+     */
+    private static final class PetSort {
+
+        //the sort column with its collation, null for the _id orders
+        private final String mKey;
+        private final boolean mDescending;
+
+        PetSort(String key, boolean descending) {
+            mKey = key;
+            mDescending = descending;
+        }
+
+        String orderBy() {
+            String idOrder = PetEntry._ID + (mDescending ? " DESC" : " ASC");
+            return mKey == null ? idOrder : mKey + " ASC," + idOrder;
+        }
+
+        //the not deleted filter, usable by the sort index when there is one
+        String notDeleted() {
+            return mKey == null ? NOT_DELETED : DELETED_KEY;
+        }
+
+        //the selection of the rows coming after the row with the given sort value (null when
+        //the row has none, nulls come first) and an _id given by afterArgs()
+        String after(String afterKey) {
+            String id = PetEntry._ID + (mDescending ? "<?" : ">?");
+            if (mKey == null) {
+                return id;
+            } else if (afterKey == null) {
+                return "((" + mKey + " IS NULL AND " + id + ") OR " + mKey + " IS NOT NULL)";
+            }
+            return mKey + ">=? AND (" + mKey + ">? OR " + id + ")";
+        }
+
+        String[] afterArgs(String afterKey, long afterId) {
+            String id = String.valueOf(afterId);
+            return mKey == null || afterKey == null ? new String[] {id} : new String[] {afterKey, afterKey, id};
+        }
+    }
 }
@@ -0,0 +1,251 @@
+package com.example.android.pets.data;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetsContract.ProviderStatsEntry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms, row counts and a slow operation log for {@link PetProvider}, kept per
+ * operation and per uri match code. Recording is a few atomic increments, only operations
+ * slower than the threshold take a lock to enter the slow log. The slow log keeps the authority
+ * of a uri only, its path and query parameters can hold search terms and the match column
+ * already tells which kind of uri it was.
+ */
+class PetProviderMetrics {
+
+    //the operations that are measured, indexes into OPERATION_NAMES
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int OPEN_FILE = 5;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete",
+            "openFile"};
+
+    //bucket i of a histogram counts the operations that took less than 2^i microseconds,
+    //the last bucket also holds everything slower
+    private static final int BUCKET_COUNT = 32;
+
+    //how many of the latest slow operations are kept
+    private static final int SLOW_LOG_SIZE = 64;
+
+    //the uri match codes start at this value, each code gets a slot of histograms
+    private final int mFirstMatchCode;
+    //the name of every match code, in order from mFirstMatchCode
+    private final String[] mMatchNames;
+
+    //per operation and match slot: the latency buckets, then count, rows, total and max micros
+    private final AtomicLongArray[][] mHistograms;
+    private static final int COUNT = BUCKET_COUNT;
+    private static final int ROWS = BUCKET_COUNT + 1;
+    private static final int TOTAL_MICROS = BUCKET_COUNT + 2;
+    private static final int MAX_MICROS = BUCKET_COUNT + 3;
+
+    //operations taking longer than this many microseconds are logged as slow
+    private volatile long mSlowThresholdMicros = 100 * 1000;
+    //ring buffer of the slow operations, mSlowLogNext is where the next one is written
+    private final Object[][] mSlowLog = new Object[SLOW_LOG_SIZE][];
+    private int mSlowLogNext;
+
+    PetProviderMetrics(int firstMatchCode, String[] matchNames) {
+        mFirstMatchCode = firstMatchCode;
+        mMatchNames = matchNames;
+        mHistograms = new AtomicLongArray[OPERATION_NAMES.length][matchNames.length];
+        for (AtomicLongArray[] operationHistograms : mHistograms) {
+            for (int i = 0; i < operationHistograms.length; i++) {
+                operationHistograms[i] = new AtomicLongArray(BUCKET_COUNT + 4);
+            }
+        }
+    }
+
+    //sets the duration from which an operation is logged as slow
+    void setSlowThresholdMillis(long millis) {
+        mSlowThresholdMicros = millis * 1000;
+    }
+
+    /**
+     * Records one operation that started at startNanos (from System.nanoTime()) and touched
+     * the given number of rows. Operations on unknown match codes are not recorded.
+     */
+    void record(int operation, int match, Uri uri, int rows, long startNanos) {
+        int slot = match - mFirstMatchCode;
+        if (slot < 0 || slot >= mMatchNames.length) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+
+        AtomicLongArray histogram = mHistograms[operation][slot];
+        histogram.incrementAndGet(bucketOf(micros));
+        histogram.incrementAndGet(COUNT);
+        histogram.addAndGet(ROWS, rows);
+        histogram.addAndGet(TOTAL_MICROS, micros);
+        long max = histogram.get(MAX_MICROS);
+        while (micros > max && !histogram.compareAndSet(MAX_MICROS, max, micros)) {
+            max = histogram.get(MAX_MICROS);
+        }
+
+        if (micros >= mSlowThresholdMicros) {
+            Object[] entry = {System.currentTimeMillis(), OPERATION_NAMES[operation],
+                    mMatchNames[slot], uri.getScheme() + "://" + uri.getAuthority(), micros, rows};
+            synchronized (mSlowLog) {
+                mSlowLog[mSlowLogNext] = entry;
+                mSlowLogNext = (mSlowLogNext + 1) % SLOW_LOG_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Wraps the cursor of a query so the query is recorded once the cursor is first read. A
+     * database cursor only runs its query when its window is filled, so the latency is the
+     * time query() took to prepare it, given as prepareNanos, plus the time of that first fill,
+     * and the rows are the count the fill finds. The caller's own first read pays for the fill,
+     * the metrics never run the query just to count it. A cursor that is never read is not
+     * recorded.
+     */
+    Cursor recordOnRead(Cursor cursor, int match, Uri uri, long prepareNanos) {
+        return new RecordingCursor(cursor, match, uri, prepareNanos);
+    }
+
+    /**
+     * Records its query on the first call that fills the window. A CrossProcessCursorWrapper,
+     * so a database cursor sent to another process still fills the window itself.
+     */
+    private final class RecordingCursor extends CrossProcessCursorWrapper {
+
+        private final int mMatch;
+        private final Uri mUri;
+        private final long mPrepareNanos;
+        private boolean mRecorded;
+
+        RecordingCursor(Cursor cursor, int match, Uri uri, long prepareNanos) {
+            super(cursor);
+            mMatch = match;
+            mUri = uri;
+            mPrepareNanos = prepareNanos;
+        }
+
+        private void recordOnce() {
+            if (mRecorded) {
+                return;
+            }
+            mRecorded = true;
+            long fillStart = System.nanoTime();
+            int rows = getWrappedCursor().getCount();
+            record(QUERY, mMatch, mUri, rows, fillStart - mPrepareNanos);
+        }
+
+        @Override
+        public int getCount() {
+            recordOnce();
+            return super.getCount();
+        }
+
+        @Override
+        public boolean move(int offset) {
+            recordOnce();
+            return super.move(offset);
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            recordOnce();
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            recordOnce();
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToLast() {
+            recordOnce();
+            return super.moveToLast();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            recordOnce();
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            recordOnce();
+            return super.moveToPrevious();
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            recordOnce();
+            super.fillWindow(position, window);
+        }
+    }
+
+    //index of the histogram bucket counting the given latency
+    private static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * One row per operation and match code that has been recorded, with the ProviderStatsEntry
+     * columns. Percentiles are the upper bound of the histogram bucket they fall in.
+     */
+    Cursor buildStatsCursor() {
+        MatrixCursor cursor = new MatrixCursor(ProviderStatsEntry.STATS_COLUMNS);
+        for (int operation = 0; operation < mHistograms.length; operation++) {
+            for (int slot = 0; slot < mMatchNames.length; slot++) {
+                AtomicLongArray histogram = mHistograms[operation][slot];
+                long count = histogram.get(COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[] {OPERATION_NAMES[operation], mMatchNames[slot], count,
+                        histogram.get(ROWS), histogram.get(TOTAL_MICROS),
+                        percentileMicros(histogram, count, 0.50),
+                        percentileMicros(histogram, count, 0.90),
+                        percentileMicros(histogram, count, 0.99),
+                        histogram.get(MAX_MICROS)});
+            }
+        }
+        return cursor;
+    }
+
+    //the upper bound of the bucket holding the given fraction of the operations
+    private static long percentileMicros(AtomicLongArray histogram, long count, double fraction) {
+        long wanted = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += histogram.get(bucket);
+            if (seen >= wanted) {
+                return bucket == BUCKET_COUNT - 1 ? histogram.get(MAX_MICROS) : (1L << bucket) - 1;
+            }
+        }
+        return histogram.get(MAX_MICROS);
+    }
+
+    /**
+     * The slow operations log, oldest first, with the ProviderStatsEntry slow columns.
+     */
+    Cursor buildSlowLogCursor() {
+        MatrixCursor cursor = new MatrixCursor(ProviderStatsEntry.SLOW_COLUMNS);
+        synchronized (mSlowLog) {
+            for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+                Object[] entry = mSlowLog[(mSlowLogNext + i) % SLOW_LOG_SIZE];
+                if (entry != null) {
+                    cursor.addRow(entry);
+                }
+            }
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.pets.data;
+
+/**
+ * The values of one pet for the typed writes of {@link PetProvider}, which bind them straight
+ * into compiled statements. Unlike ContentValues nothing is boxed, and a record can be set again
+ * and reused for the next write. It is plain Java so code outside the app can share it.
+ *
+ * A gender or weight that isn't known is stored as NULL: clearGender() and clearWeight() mark it
+ * missing, hasGender() and hasWeight() tell, and its getter then answers 0. Setting a value
+ * marks it present again.
+ */
+public final class PetRecord {
+
+    private String mName;
+    private String mBreed;
+    //one of the PetEntry.GENDER_ constants, 0 is unknown
+    private int mGender;
+    private int mWeight;
+    //false when the value is missing and written as NULL
+    private boolean mHasGender;
+    private boolean mHasWeight;
+
+    public PetRecord() {
+    }
+
+    public PetRecord(String name, String breed, int gender, int weight) {
+        set(name, breed, gender, weight);
+    }
+
+    //sets every value at once, so a record can be reused without allocating a new one
+    public PetRecord set(String name, String breed, int gender, int weight) {
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mHasGender = true;
+        mHasWeight = true;
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public PetRecord setName(String name) {
+        mName = name;
+        return this;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public PetRecord setBreed(String breed) {
+        mBreed = breed;
+        return this;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public PetRecord setGender(int gender) {
+        mGender = gender;
+        mHasGender = true;
+        return this;
+    }
+
+    public boolean hasGender() {
+        return mHasGender;
+    }
+
+    //marks the gender missing, it is written as NULL
+    public PetRecord clearGender() {
+        mGender = 0;
+        mHasGender = false;
+        return this;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    public PetRecord setWeight(int weight) {
+        mWeight = weight;
+        mHasWeight = true;
+        return this;
+    }
+
+    public boolean hasWeight() {
+        return mHasWeight;
+    }
+
+    //marks the weight missing, it is written as NULL
+    public PetRecord clearWeight() {
+        mWeight = 0;
+        mHasWeight = false;
+        return this;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.pets.data;
+
+/**
+ * The state of one pet as it travels between a branch and the registry: its values, or a delete,
+ * under the id it has everywhere, stamped with the version of the change. Versions are ordered by
+ * change time and then by origin, so every branch and the registry pick the same winner for
+ * concurrent changes (last writer wins). It is plain Java, the registry shares it.
+ */
+public final class PetSyncChange {
+
+    private final String mGlobalId;
+    private final String mName;
+    private final String mBreed;
+    //null when the pet has no gender or no weight, like the columns
+    private final Integer mGender;
+    private final Integer mWeight;
+    private final boolean mDeleted;
+    private final long mChangedAt;
+    private final String mOrigin;
+    //the registry sequence of the change, 0 until the registry accepted it
+    private final long mSequence;
+
+    public PetSyncChange(String globalId, String name, String breed, Integer gender, Integer weight,
+                         boolean deleted, long changedAt, String origin, long sequence) {
+        mGlobalId = globalId;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mDeleted = deleted;
+        mChangedAt = changedAt;
+        mOrigin = origin;
+        mSequence = sequence;
+    }
+
+    //the same change with the sequence the registry gave it
+    public PetSyncChange withSequence(long sequence) {
+        return new PetSyncChange(mGlobalId, mName, mBreed, mGender, mWeight, mDeleted, mChangedAt,
+                mOrigin, sequence);
+    }
+
+    /**
+     * Orders two versions, negative when the first is older. The origin breaks ties so the
+     * order is the same everywhere.
+     */
+    public static int compareVersions(long changedAt, String origin, long otherChangedAt, String otherOrigin) {
+        if (changedAt != otherChangedAt) {
+            return changedAt < otherChangedAt ? -1 : 1;
+        }
+        return origin.compareTo(otherOrigin);
+    }
+
+    //true when this change wins over a change with the given version
+    public boolean isNewerThan(long changedAt, String origin) {
+        return compareVersions(mChangedAt, mOrigin, changedAt, origin) > 0;
+    }
+
+    public String getGlobalId() {
+        return mGlobalId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public Integer getGender() {
+        return mGender;
+    }
+
+    public Integer getWeight() {
+        return mWeight;
+    }
+
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    public long getChangedAt() {
+        return mChangedAt;
+    }
+
+    public String getOrigin() {
+        return mOrigin;
+    }
+
+    public long getSequence() {
+        return mSequence;
+    }
+}
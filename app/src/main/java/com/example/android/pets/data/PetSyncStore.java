@@ -0,0 +1,345 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetsContract.PetChangeEntry;
+import com.example.android.pets.data.PetsContract.PetEntry;
+import com.example.android.pets.data.PetsContract.PetSyncEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The branch side of the registry sync. Outgoing changes come from the change log, which the sync
+ * follows as a consumer, so a push reads only the pets that changed since the last one and the
+ * log position survives an interrupted sync. Incoming changes are written through the provider in
+ * one transaction with the pull cursor, so a pull resumes where its last committed batch ended.
+ *
+ * Every synced pet has a global id and the version of the last change the sync saw of it in
+ * PetSyncMap. A change only replaces a pet when its version is newer, see {@link PetSyncChange}.
+ * Photos stay on the branch that has them.
+ *
+ * Run it off the main thread.
+ */
+public final class PetSyncStore {
+
+    /**
+     * Changes read from the change log for one push, acknowledged with markPushed() once the
+     * registry has them.
+     */
+    public static final class OutgoingBatch {
+
+        private final List<PetSyncChange> mChanges;
+        private final long mFirstSequence;
+        private final long mLastSequence;
+
+        OutgoingBatch(List<PetSyncChange> changes, long firstSequence, long lastSequence) {
+            mChanges = changes;
+            mFirstSequence = firstSequence;
+            mLastSequence = lastSequence;
+        }
+
+        public List<PetSyncChange> getChanges() {
+            return mChanges;
+        }
+
+        //true when the log had nothing after the last push, some log entries have no change to push
+        public boolean isEmpty() {
+            return mFirstSequence == mLastSequence;
+        }
+    }
+
+    //the log entries of one pet within a batch, pushed as its latest state
+    private static final class Pending {
+        final long mPetId;
+        long mSequence;
+        long mChangedAt;
+
+        Pending(long petId) {
+            mPetId = petId;
+        }
+    }
+
+    //name of the change log consumer of the push side
+    private static final String CHANGE_CONSUMER = "registry_sync";
+    //names of the PetSyncState values
+    private static final String STATE_ORIGIN = "origin";
+    private static final String STATE_PULL_CURSOR = "pull_cursor";
+
+    private static final String LOG_TAG = PetSyncStore.class.getSimpleName();
+
+    private final PetProvider mProvider;
+    private String mOrigin;
+
+    public PetSyncStore(Context context) {
+        mProvider = PetProvider.getLocalProvider(context);
+    }
+
+    /**
+     * The origin of the changes made on this branch, a random id made on the first sync.
+     */
+    public synchronized String getOrigin() {
+        if (mOrigin == null) {
+            mOrigin = readState(STATE_ORIGIN);
+            if (mOrigin == null) {
+                mOrigin = UUID.randomUUID().toString();
+                writeState(STATE_ORIGIN, mOrigin);
+            }
+        }
+        return mOrigin;
+    }
+
+    /**
+     * Reads at most limit log entries after the last push and turns them into the changes of
+     * their pets, one per pet. On the first sync every pet is logged once, so the registry gets
+     * the whole branch. Changes written by a pull are not pushed back.
+     */
+    public OutgoingBatch readOutgoing(int limit) {
+        String origin = getOrigin();
+        //registering again is a no-op answering the acknowledged sequence
+        long acked = mProvider.registerChangeConsumer(CHANGE_CONSUMER, true);
+        SQLiteDatabase database = mProvider.getDatabase();
+
+        //the latest log entry per pet, pet ids are never reused (see purgeDeletedPets())
+        LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+        long lastSequence = acked;
+        Cursor cursor = database.query(PetChangeEntry.TABLE_NAME, new String[] {PetChangeEntry.COLUMN_SEQUENCE,
+                        PetChangeEntry.COLUMN_PET_ID, PetChangeEntry.COLUMN_CHANGED_AT},
+                PetChangeEntry.COLUMN_SEQUENCE + ">?", new String[] {String.valueOf(acked)}, null, null,
+                PetChangeEntry.COLUMN_SEQUENCE + " ASC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                lastSequence = cursor.getLong(0);
+                long petId = cursor.getLong(1);
+                Pending latest = pending.get(petId);
+                if (latest == null) {
+                    latest = new Pending(petId);
+                    pending.put(petId, latest);
+                }
+                latest.mSequence = lastSequence;
+                latest.mChangedAt = cursor.getLong(2);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        List<PetSyncChange> changes = new ArrayList<>();
+        database.beginTransaction();
+        try {
+            for (Pending latest : pending.values()) {
+                PetSyncChange change = toChange(database, latest, origin);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return new OutgoingBatch(changes, acked, lastSequence);
+    }
+
+    /**
+     * The change to push for the latest log entry of a pet, or null when there is nothing to push.
+     * The global id of a new pet is stored right away, so a retried push sends the same one.
+     */
+    private PetSyncChange toChange(SQLiteDatabase database, Pending latest, String origin) {
+        String globalId = null;
+        long pulledSequence = 0;
+        Cursor map = database.query(PetSyncEntry.TABLE_NAME, new String[] {PetSyncEntry.COLUMN_GLOBAL_ID,
+                        PetSyncEntry.COLUMN_PULLED_SEQUENCE}, PetSyncEntry.COLUMN_PET_ID + "=?",
+                new String[] {String.valueOf(latest.mPetId)}, null, null, null);
+        try {
+            if (map.moveToFirst()) {
+                globalId = map.getString(0);
+                pulledSequence = map.getLong(1);
+            }
+        } finally {
+            map.close();
+        }
+        if (pulledSequence >= latest.mSequence) {
+            //the latest entry was written by a pull, the registry already has it
+            return null;
+        }
+
+        String name = null;
+        String breed = null;
+        Integer gender = null;
+        Integer weight = null;
+        boolean deleted = true;
+        Cursor pet = database.query(PetEntry.TABLE_NAME, new String[] {PetEntry.COLUMN_PET_NAME,
+                        PetEntry.COLUMN_PET_BREED, PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT,
+                        PetEntry.COLUMN_PET_DELETED}, PetEntry._ID + "=?",
+                new String[] {String.valueOf(latest.mPetId)}, null, null, null);
+        try {
+            //a purged pet has no row anymore, it was deleted
+            if (pet.moveToFirst() && pet.getInt(4) == 0) {
+                name = pet.getString(0);
+                breed = pet.getString(1);
+                //the columns are nullable, a pet without a weight must not become 0 kg elsewhere
+                gender = pet.isNull(2) ? null : pet.getInt(2);
+                weight = pet.isNull(3) ? null : pet.getInt(3);
+                deleted = false;
+            }
+        } finally {
+            pet.close();
+        }
+
+        if (globalId == null) {
+            if (deleted) {
+                //the registry never saw this pet
+                return null;
+            }
+            globalId = UUID.randomUUID().toString();
+        }
+        ContentValues values = new ContentValues();
+        values.put(PetSyncEntry.COLUMN_PET_ID, latest.mPetId);
+        values.put(PetSyncEntry.COLUMN_GLOBAL_ID, globalId);
+        values.put(PetSyncEntry.COLUMN_CHANGED_AT, latest.mChangedAt);
+        values.put(PetSyncEntry.COLUMN_ORIGIN, origin);
+        values.put(PetSyncEntry.COLUMN_PULLED_SEQUENCE, pulledSequence);
+        database.insertWithOnConflict(PetSyncEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        return new PetSyncChange(globalId, name, breed, gender, weight, deleted, latest.mChangedAt, origin, 0);
+    }
+
+    /**
+     * Acknowledges the log entries of a batch the registry accepted, the next push starts after
+     * them. Pushing a batch again is harmless, the registry ignores versions it already has.
+     */
+    public void markPushed(OutgoingBatch batch) {
+        mProvider.ackChanges(CHANGE_CONSUMER, batch.mLastSequence);
+    }
+
+    //the registry sequence the next pull starts after
+    public long getPullCursor() {
+        String cursor = readState(STATE_PULL_CURSOR);
+        return cursor == null ? 0 : Long.parseLong(cursor);
+    }
+
+    /**
+     * Writes the pulled changes that are newer than what the branch has, along with the new pull
+     * cursor, in one transaction. Returns the number of pets changed.
+     */
+    public int applyIncoming(final List<PetSyncChange> changes, final long pullCursor) {
+        final String origin = getOrigin();
+        final int[] applied = new int[1];
+        mProvider.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase database = mProvider.getDatabase();
+                long pushedSequence = mProvider.registerChangeConsumer(CHANGE_CONSUMER, true);
+                PetRecord pet = new PetRecord();
+                for (PetSyncChange change : changes) {
+                    if (!origin.equals(change.getOrigin())
+                            && applyChange(database, change, origin, pushedSequence, pet)) {
+                        applied[0]++;
+                    }
+                }
+                writeState(STATE_PULL_CURSOR, String.valueOf(pullCursor));
+            }
+        });
+        return applied[0];
+    }
+
+    private boolean applyChange(SQLiteDatabase database, PetSyncChange change, String origin,
+                                long pushedSequence, PetRecord pet) {
+        long petId = -1;
+        Cursor map = database.query(PetSyncEntry.TABLE_NAME, new String[] {PetSyncEntry.COLUMN_PET_ID,
+                        PetSyncEntry.COLUMN_CHANGED_AT, PetSyncEntry.COLUMN_ORIGIN, PetSyncEntry.COLUMN_PULLED_SEQUENCE},
+                PetSyncEntry.COLUMN_GLOBAL_ID + "=?", new String[] {change.getGlobalId()}, null, null, null);
+        try {
+            if (map.moveToFirst()) {
+                petId = map.getLong(0);
+                long changedAt = map.getLong(1);
+                String changeOrigin = map.getString(2);
+                //a local change made after the last push counts too, it wasn't mapped yet
+                long unpushedAt = unpushedChangeTime(database, petId, Math.max(pushedSequence, map.getLong(3)));
+                if (unpushedAt > 0 && PetSyncChange.compareVersions(unpushedAt, origin, changedAt, changeOrigin) > 0) {
+                    changedAt = unpushedAt;
+                    changeOrigin = origin;
+                }
+                if (!change.isNewerThan(changedAt, changeOrigin)) {
+                    return false;
+                }
+            }
+        } finally {
+            map.close();
+        }
+
+        if (change.isDeleted()) {
+            if (petId == -1) {
+                //deleted before this branch ever saw it
+                return false;
+            }
+            mProvider.deletePetById(petId);
+        } else {
+            try {
+                //a pet deleted here can't come back, an update that wins over the delete makes a new one
+                pet.setName(change.getName()).setBreed(change.getBreed());
+                if (change.getGender() != null) {
+                    pet.setGender(change.getGender());
+                } else {
+                    pet.clearGender();
+                }
+                if (change.getWeight() != null) {
+                    pet.setWeight(change.getWeight());
+                } else {
+                    pet.clearWeight();
+                }
+                if (petId == -1 || mProvider.updatePet(petId, pet) == 0) {
+                    petId = mProvider.insertPet(pet);
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "pulled pet " + change.getGlobalId() + " skipped, " + e.getMessage());
+                return false;
+            }
+        }
+
+        //the log entries the write just made are not pushed back
+        ContentValues values = new ContentValues();
+        values.put(PetSyncEntry.COLUMN_PET_ID, petId);
+        values.put(PetSyncEntry.COLUMN_GLOBAL_ID, change.getGlobalId());
+        values.put(PetSyncEntry.COLUMN_CHANGED_AT, change.getChangedAt());
+        values.put(PetSyncEntry.COLUMN_ORIGIN, change.getOrigin());
+        values.put(PetSyncEntry.COLUMN_PULLED_SEQUENCE, DatabaseUtils.longForQuery(database,
+                "SELECT IFNULL((SELECT seq FROM sqlite_sequence WHERE name=?),0)",
+                new String[] {PetChangeEntry.TABLE_NAME}));
+        database.insertWithOnConflict(PetSyncEntry.TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        return true;
+    }
+
+    //the time of the latest log entry of the pet after the given sequence, 0 when there is none
+    private static long unpushedChangeTime(SQLiteDatabase database, long petId, long afterSequence) {
+        //the sequence range comes first, so only the unpushed end of the log is read
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + PetChangeEntry.COLUMN_CHANGED_AT +
+                        "),0) FROM " + PetChangeEntry.TABLE_NAME + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE +
+                        ">? AND " + PetChangeEntry.COLUMN_PET_ID + "=?",
+                new String[] {String.valueOf(afterSequence), String.valueOf(petId)});
+    }
+
+    private String readState(String name) {
+        Cursor cursor = mProvider.getDatabase().query(PetSyncEntry.STATE_TABLE_NAME,
+                new String[] {PetSyncEntry.COLUMN_STATE_VALUE}, PetSyncEntry.COLUMN_STATE_NAME + "=?",
+                new String[] {name}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void writeState(String name, String value) {
+        ContentValues values = new ContentValues();
+        values.put(PetSyncEntry.COLUMN_STATE_NAME, name);
+        values.put(PetSyncEntry.COLUMN_STATE_VALUE, value);
+        mProvider.getDatabase().insertWithOnConflict(PetSyncEntry.STATE_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+}
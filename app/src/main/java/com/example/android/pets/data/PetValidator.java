@@ -0,0 +1,48 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetsContract.PetEntry;
+
+/**
+ * The sanity checks every pet goes through before it is inserted. They are public so an import
+ * can check its rows up front and reject the bad ones on their own, instead of letting one bad
+ * row fail a whole bulkInsert().
+ */
+public final class PetValidator {
+
+    //the breed given to pets inserted without one
+    public static final String DEFAULT_BREED = "Unknown";
+
+    private PetValidator() {
+    }
+
+    /**
+     * Checks the values of a pet about to be inserted. A missing breed becomes
+     * {@link #DEFAULT_BREED} and an empty name is rejected with an
+     * {@link IllegalArgumentException}.
+     */
+    public static void validate(ContentValues values) {
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+
+        if (breed == null || breed.isEmpty()){
+            values.put(PetEntry.COLUMN_PET_BREED, DEFAULT_BREED);
+        }
+        if (name == null || name.isEmpty()){
+            throw new IllegalArgumentException("invalid or empty name");
+        }
+    }
+
+    /**
+     * The same checks as {@link #validate(ContentValues)}, for a typed {@link PetRecord}.
+     */
+    public static void validate(PetRecord pet) {
+        if (pet.getBreed() == null || pet.getBreed().isEmpty()){
+            pet.setBreed(DEFAULT_BREED);
+        }
+        if (pet.getName() == null || pet.getName().isEmpty()){
+            throw new IllegalArgumentException("invalid or empty name");
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs pet writes on a background thread so the UI never waits for the disk. Writes are run
+ * one after another in the order they were queued, so the writes to one pet always land in
+ * order. The writes queued within GROUP_COMMIT_WINDOW_MILLIS of each other are committed
+ * together in one transaction, which costs one disk sync instead of one per write.
+ *
+ * Every write can take a {@link Callback}, called on the main thread once it is committed.
+ *
+ * When no write is waiting, the thread purges the rows of deleted pets in small batches and
+ * then gives the freed pages back to the file system with incremental vacuum steps, so this
+ * housekeeping never holds up a write for more than one batch. The vacuum steps need a
+ * database in incremental auto vacuum mode. Switching one that isn't rewrites the whole file
+ * and blocks every write meanwhile, so it only happens once no write was queued for
+ * VACUUM_MODE_IDLE_MILLIS, and a switch postponed for lack of space is tried again after the
+ * same idle time.
+ */
+public final class PetWriteQueue {
+
+    /**
+     * Gets the result of a write on the main thread: the id of an inserted pet, the number of
+     * updated or deleted rows, or {@link #FAILED}.
+     */
+    public interface Callback {
+        void onWriteDone(long result);
+    }
+
+    //the result of a write that failed
+    public static final long FAILED = -1;
+
+    //how long the first write of a group waits for more writes to commit with
+    private static final long GROUP_COMMIT_WINDOW_MILLIS = 10;
+    //the most writes committed in one transaction
+    private static final int MAX_GROUP_SIZE = 200;
+    //the most free pages given back by one vacuum step
+    private static final int VACUUM_STEP_PAGES = 256;
+    //how long the queue has to stay empty before the database is switched to incremental
+    //auto vacuum
+    private static final long VACUUM_MODE_IDLE_MILLIS = 60 * 1000;
+
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    private static PetWriteQueue sInstance;
+
+    private final Context mContext;
+    private final LinkedBlockingQueue<Write> mQueue = new LinkedBlockingQueue<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    //whether deleted pets may be waiting to be purged, true at start for the ones a previous
+    //run of the app left behind
+    private volatile boolean mPurgeRequested = true;
+    //whether purged rows left free pages to vacuum, only set in incremental auto vacuum mode.
+    //The fields below are only used by the worker thread
+    private boolean mVacuumPending;
+    //whether the auto vacuum mode was read in this run of the app, and what it was
+    private boolean mVacuumModeChecked;
+    private boolean mIncrementalVacuum;
+    //whether switching to incremental auto vacuum failed, it is not tried again in this run
+    private boolean mVacuumModeFailed;
+
+    /**
+     * Returns the write queue of the app, its thread is started on first use.
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PetWriteQueue(Context context) {
+        mContext = context;
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWrites();
+            }
+        }, LOG_TAG);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues the insert of a pet, the callback gets its id. The record is checked right away,
+     * an invalid one throws an IllegalArgumentException here. Don't change the record after
+     * queuing it.
+     */
+    public void insert(final PetRecord pet, Callback callback) {
+        PetValidator.validate(pet);
+        mQueue.add(new Write(callback) {
+            @Override
+            long run(PetProvider provider) {
+                return provider.insertPet(pet);
+            }
+        });
+    }
+
+    /**
+     * Queues the update of the pet with the given id, the callback gets the number of updated
+     * rows. The record is checked and must be left alone like for insert().
+     */
+    public void update(final long id, final PetRecord pet, Callback callback) {
+        PetValidator.validate(pet);
+        mQueue.add(new Write(callback) {
+            @Override
+            long run(PetProvider provider) {
+                return provider.updatePet(id, pet);
+            }
+        });
+    }
+
+    /**
+     * Queues the delete of a pet uri, or of every pet for the pets uri. The callback gets the
+     * number of deleted rows.
+     */
+    public void delete(final Uri uri, Callback callback) {
+        mQueue.add(new Write(callback) {
+            @Override
+            long run(PetProvider provider) {
+                return provider.delete(uri, null, null);
+            }
+        });
+    }
+
+    /**
+     * Asks for the rows of deleted pets to be purged once the queue is idle. Called by the
+     * provider after every delete.
+     */
+    public void schedulePurge() {
+        mPurgeRequested = true;
+        //wakes the worker thread up if it is waiting for writes
+        mQueue.offer(IDLE);
+    }
+
+    //the loop of the worker thread: take a group of writes, commit it, report it, repeat
+    private void runWrites() {
+        PetProvider provider = PetProvider.getLocalProvider(mContext);
+        ArrayList<Write> group = new ArrayList<>();
+        while (true) {
+            try {
+                Write first;
+                if (mPurgeRequested || mVacuumPending || !mVacuumModeChecked) {
+                    first = mQueue.poll();
+                } else if (!mIncrementalVacuum && !mVacuumModeFailed) {
+                    //null once the queue stayed empty that long, which is when the mode is switched
+                    first = mQueue.poll(VACUUM_MODE_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+                } else {
+                    first = mQueue.take();
+                }
+                if (first == null) {
+                    runHousekeepingStep(provider);
+                    continue;
+                } else if (first == IDLE) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = SystemClock.uptimeMillis() + GROUP_COMMIT_WINDOW_MILLIS;
+                while (group.size() < MAX_GROUP_SIZE) {
+                    long wait = deadline - SystemClock.uptimeMillis();
+                    Write write = wait > 0 ? mQueue.poll(wait, TimeUnit.MILLISECONDS) : mQueue.poll();
+                    if (write == null) {
+                        break;
+                    }
+                    if (write != IDLE) {
+                        group.add(write);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //nobody interrupts this thread, keep going with what we have
+            }
+            if (!group.isEmpty()) {
+                commit(provider, group);
+                deliverResults(new ArrayList<>(group));
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads the auto vacuum mode of the database once, then purges one batch of deleted pets,
+     * or once they are all purged runs one vacuum step, or when there is nothing else to do
+     * switches the database to incremental auto vacuum. Only called with an empty queue, the
+     * switch only after the queue stayed empty for VACUUM_MODE_IDLE_MILLIS.
+     */
+    private void runHousekeepingStep(PetProvider provider) {
+        boolean switchingMode = false;
+        try {
+            if (!mVacuumModeChecked) {
+                mVacuumModeChecked = true;
+                mIncrementalVacuum = provider.isIncrementalVacuum();
+            } else if (mPurgeRequested) {
+                //cleared first, so a delete made while purging asks for one more batch
+                mPurgeRequested = false;
+                int purged = provider.purgeDeletedPets(PetProvider.PURGE_BATCH_SIZE);
+                if (purged == PetProvider.PURGE_BATCH_SIZE) {
+                    mPurgeRequested = true;
+                }
+                //without incremental auto vacuum the free pages wait for the mode switch,
+                //its VACUUM gives them all back
+                if (purged > 0 && mIncrementalVacuum) {
+                    mVacuumPending = true;
+                }
+            } else if (mVacuumPending) {
+                //a step that gives back less than it may has found the end of the free pages
+                mVacuumPending = provider.vacuumFreePages(VACUUM_STEP_PAGES) == VACUUM_STEP_PAGES;
+            } else if (!mIncrementalVacuum && !mVacuumModeFailed) {
+                //false when the space is missing, tried again after the next idle time
+                switchingMode = true;
+                mIncrementalVacuum = provider.enableIncrementalVacuum();
+            }
+        } catch (RuntimeException e) {
+            //the next delete asks again, a failed mode switch waits for the next start
+            Log.e(LOG_TAG, "database housekeeping failed", e);
+            mPurgeRequested = false;
+            mVacuumPending = false;
+            if (switchingMode) {
+                mVacuumModeFailed = true;
+            }
+        }
+    }
+
+    /**
+     * Runs a group of writes in one transaction. When one of them fails the transaction rolls
+     * every one of them back, so they are run again one by one and only the failing one fails.
+     */
+    private static void commit(final PetProvider provider, final ArrayList<Write> group) {
+        if (group.size() > 1) {
+            try {
+                provider.runInTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Write write : group) {
+                            write.mResult = write.run(provider);
+                        }
+                    }
+                });
+                return;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "group commit of " + group.size() + " writes failed, retrying them one by one", e);
+            }
+        }
+        for (Write write : group) {
+            try {
+                write.mResult = write.run(provider);
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "write failed", e);
+                write.mResult = FAILED;
+            }
+        }
+    }
+
+    //hands the results of a committed group to their callbacks, on the main thread
+    private void deliverResults(final ArrayList<Write> group) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Write write : group) {
+                    if (write.mCallback != null) {
+                        write.mCallback.onWriteDone(write.mResult);
+                    }
+                }
+            }
+        });
+    }
+
+    //queued by schedulePurge() to wake the worker thread, it is not a write
+    private static final Write IDLE = new Write(null) {
+        @Override
+        long run(PetProvider provider) {
+            return 0;
+        }
+    };
+
+    /** One queued write and its result */
+    private abstract static class Write {
+        final Callback mCallback;
+        long mResult = FAILED;
+
+        Write(Callback callback) {
+            mCallback = callback;
+        }
+
+        abstract long run(PetProvider provider);
+    }
+}
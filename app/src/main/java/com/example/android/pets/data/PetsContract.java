@@ -1,9 +1,14 @@
 package com.example.android.pets.data;
 
+import android.content.ContentUris;
 import android.content.UriMatcher;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * Created by ali on 9/23/2018.
  */
@@ -12,11 +17,118 @@ public class PetsContract {
 
     //constant for the content authority
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
+    //signature permission guarding the provider, so only apps signed with the same key, like a
+    //companion app running its batches from another process, can reach it
+    public static final String PERMISSION_ACCESS_PETS = "com.example.android.pets.permission.ACCESS_PETS";
     //constant for the basic part of the uri we`re gonna use (schema + authority)
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     //constant for the path table name, which is the name of the table to get data from
     public static final String PATH_PETS = "pets";
 
+    //constant for the path of the full text search uri, followed by the search terms
+    public static final String PATH_SEARCH = "search";
+
+    //query parameter added to change notification uris, telling observers what kind of change
+    //happened so they can patch their data in place instead of reloading everything
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+    //values of the change query parameter
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    //provider call() method answering a bundle with the pet cache counters under the KEY_CACHE_ keys
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+    public static final String KEY_CACHE_SIZE = "cache_size";
+
+    //provider call() method recomputing the pet statistics from the pets table and comparing them
+    //with the maintained ones, answers the number of differing rows under KEY_STATS_MISMATCHES
+    public static final String METHOD_CHECK_STATS = "check_stats";
+    public static final String KEY_STATS_MISMATCHES = "stats_mismatches";
+
+    //provider call() method setting the slow operations log threshold, arg is in milliseconds
+    public static final String METHOD_SET_SLOW_THRESHOLD = "set_slow_threshold";
+
+    //provider call() method running the operations of a PetBatch in one transaction, its extras
+    //come from PetBatch.toExtras() and it answers the KEY_BATCH_RESULTS of every operation,
+    //along with the KEY_BATCH_ pet values of the ones reading a pet
+    public static final String METHOD_BATCH = "batch";
+    public static final String KEY_BATCH_OPERATIONS = "batch_operations";
+    public static final String KEY_BATCH_IDS = "batch_ids";
+    public static final String KEY_BATCH_NAMES = "batch_names";
+    public static final String KEY_BATCH_BREEDS = "batch_breeds";
+    public static final String KEY_BATCH_GENDERS = "batch_genders";
+    public static final String KEY_BATCH_WEIGHTS = "batch_weights";
+    //false where the gender or weight at the same index is missing, stored and read as NULL
+    public static final String KEY_BATCH_HAS_GENDERS = "batch_has_genders";
+    public static final String KEY_BATCH_HAS_WEIGHTS = "batch_has_weights";
+    public static final String KEY_BATCH_RESULTS = "batch_results";
+
+    //constants for the paths of the photo and the photo thumbnail of a pet, under its uri
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    //constant for the path of the change log uri, under the pets path
+    public static final String PATH_CHANGES = "changes";
+    //query parameter of the change log uri, only the changes with a greater sequence are returned
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    //provider call() method registering the change log consumer named by arg. The log keeps every
+    //change after the sequence it answers under KEY_CHANGE_SEQUENCE until the consumer acknowledges
+    //it, a new consumer starts after the latest change
+    public static final String METHOD_REGISTER_CHANGE_CONSUMER = "register_change_consumer";
+    //boolean extra of METHOD_REGISTER_CHANGE_CONSUMER, a new consumer then starts with every pet
+    //logged as updated, so it can follow the log without reading the pets table first
+    public static final String KEY_CHANGE_REPLAY = "change_replay";
+    //provider call() method acknowledging the changes up to the KEY_CHANGE_SEQUENCE of the extras
+    //for the consumer named by arg. Changes every consumer acknowledged are removed from the log
+    public static final String METHOD_ACK_CHANGES = "ack_changes";
+    //provider call() method unregistering the change log consumer named by arg
+    public static final String METHOD_UNREGISTER_CHANGE_CONSUMER = "unregister_change_consumer";
+    public static final String KEY_CHANGE_SEQUENCE = "change_sequence";
+
+    //constant for the path of the pet statistics uri, under the pets path
+    public static final String PATH_STATS = "stats";
+
+    //constant for the path of the provider metrics uri, under the pets path
+    public static final String PATH_PROVIDER_STATS = "_stats";
+    //constant for the path of the slow operations log, under the provider metrics path
+    public static final String PATH_SLOW_LOG = "slow";
+
+    //mime types the pets uri can be exported as, through ContentResolver.openTypedAssetFileDescriptor().
+    //From API 19 an export that fails is closed with its error, ParcelFileDescriptor.checkError()
+    //of the reader throws it
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_JSON = "application/json";
+    //keys of the export options bundle, they mean the same as the arguments of query()
+    public static final String EXPORT_OPTION_PROJECTION = "projection";
+    public static final String EXPORT_OPTION_SELECTION = "selection";
+    public static final String EXPORT_OPTION_SELECTION_ARGS = "selection_args";
+    public static final String EXPORT_OPTION_SORT_ORDER = "sort_order";
+
+    //query parameter for the maximum number of rows a pets query returns
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    //query parameter for keyset pagination, only rows coming after the row with this _id in
+    //the order of the query are returned
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    //query parameter holding the sort value of that row, for the name, breed and weight sorts.
+    //It is left out when the row has no value for the sort column
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    //query parameter choosing the order of a pets query, one of the SORT_ values, instead of a
+    //sort order. Every one of them is read from an index, so pages never sort the table
+    public static final String QUERY_PARAMETER_SORT = "sort";
+    //values of the sort query parameter
+    public static final String SORT_ID = "id";
+    //by name, in the order of the device language
+    public static final String SORT_NAME = "name";
+    public static final String SORT_BREED = "breed";
+    //lightest first, pets without a weight come before all the others
+    public static final String SORT_WEIGHT = "weight";
+    //the latest added pets first
+    public static final String SORT_NEWEST = "newest";
+
 
     //we create an inner class for each table
     //this one is for the "Pets" table
@@ -31,6 +143,11 @@ public class PetsContract {
         public static final String COLUMN_PET_BREED = "breed";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        //file name of the photo of the pet, null when it has none. The image itself is a file
+        //read through buildPhotoUri(), see PetPhotos
+        public static final String COLUMN_PET_PHOTO = "photo";
+        //1 once the pet is deleted, the provider hides these rows until they are purged
+        public static final String COLUMN_PET_DELETED = "deleted";
 
         //constants for the gender column
         public static final int GENDER_MALE = 1;
@@ -40,5 +157,428 @@ public class PetsContract {
         //constant to the full uri of the pets table
         //the withAppendPath() method is used to append a string to a uri
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+
+        /**
+         * Builds the uri of one page of pets, holding at most {@code limit} rows ordered by _id
+         * that come after the pet with the id {@code afterId} (use 0 for the first page).
+         */
+        public static Uri buildPageUri(int limit, long afterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId))
+                    .build();
+        }
+
+        /**
+         * Builds the uri of one page of pets in one of the SORT_ orders, holding at most
+         * {@code limit} rows that come after the pet with the id {@code afterId} and the sort
+         * value {@code afterKey} (null when that pet has none). Use 0 as afterId for the first
+         * page.
+         */
+        public static Uri buildPageUri(int limit, String sort, String afterKey, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+            if (afterId > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId));
+                if (afterKey != null) {
+                    builder.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, afterKey);
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * Builds the uri notified when the pet with the given id changes. The kind of change
+         * (one of the CHANGE_ constants) is carried by the change query parameter, which
+         * doesn't affect which observers are notified.
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change).build();
+        }
+
+        /**
+         * Builds the uri of the photo of the pet with the given id, it is read with
+         * ContentResolver.openInputStream(). buildThumbnailUri() gives a small version of it.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_PHOTO).build();
+        }
+
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_THUMBNAIL).build();
+        }
+
+        /**
+         * Builds the full text search uri for the given terms, every term is matched as a prefix
+         * of a word in the pet name or breed.
+         */
+        public static Uri buildSearchUri(String terms) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(terms).build();
+        }
+    }
+
+    /**
+     * Builds the selection and selection arguments of a pets query from typed criteria, for
+     * example {@code new PetFilter().gender(PetEntry.GENDER_FEMALE).maxWeight(10)}. Every
+     * criterion is written so SQLite can read it from an index: values are bound as arguments,
+     * columns are compared as they are stored and prefixes become ranges instead of LIKE.
+     * Criteria set together must all match.
+     */
+    public static final class PetFilter {
+
+        private Integer mGender;
+        private Integer mMinWeight;
+        private Integer mMaxWeight;
+        private String mBreedPrefix;
+        private String mNamePrefix;
+
+        //only pets of one of the GENDER_ values
+        public PetFilter gender(int gender) {
+            mGender = gender;
+            return this;
+        }
+
+        //only pets weighing at least this much, pets without a weight never match
+        public PetFilter minWeight(int weight) {
+            mMinWeight = weight;
+            return this;
+        }
+
+        //only pets weighing at most this much, pets without a weight never match
+        public PetFilter maxWeight(int weight) {
+            mMaxWeight = weight;
+            return this;
+        }
+
+        //only pets whose breed starts with the prefix, case sensitive
+        public PetFilter breedPrefix(String prefix) {
+            mBreedPrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+            return this;
+        }
+
+        //only pets whose name starts with the prefix, case sensitive
+        public PetFilter namePrefix(String prefix) {
+            mNamePrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+            return this;
+        }
+
+        /**
+         * The selection for the pets uri, null when no criterion is set.
+         */
+        public String getSelection() {
+            StringBuilder selection = new StringBuilder();
+            build(selection, null);
+            return selection.length() == 0 ? null : selection.toString();
+        }
+
+        /**
+         * The arguments of {@link #getSelection()}, in order. Null when no criterion is set.
+         */
+        public String[] getSelectionArgs() {
+            ArrayList<String> args = new ArrayList<>();
+            build(new StringBuilder(), args);
+            return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+        }
+
+        //writes the selection and its arguments, the gender and weight terms share the
+        //gender/weight index and the breed terms the breed/weight one
+        private void build(StringBuilder selection, ArrayList<String> args) {
+            if (mGender != null) {
+                addTerm(selection, args, PetEntry.COLUMN_PET_GENDER + "=?", String.valueOf(mGender));
+            }
+            if ((mMinWeight != null || mMaxWeight != null) && mGender == null && mBreedPrefix == null
+                    && mNamePrefix == null) {
+                //on its own a weight range is read from the weight sort index, which starts with
+                //the deleted column, so it needs that column compared to a value
+                addTerm(selection, args, PetEntry.COLUMN_PET_DELETED + "=0", null);
+            }
+            if (mMinWeight != null) {
+                addTerm(selection, args, PetEntry.COLUMN_PET_WEIGHT + ">=?", String.valueOf(mMinWeight));
+            }
+            if (mMaxWeight != null) {
+                addTerm(selection, args, PetEntry.COLUMN_PET_WEIGHT + "<=?", String.valueOf(mMaxWeight));
+            }
+            if (mBreedPrefix != null) {
+                addPrefixTerms(selection, args, PetEntry.COLUMN_PET_BREED, mBreedPrefix);
+            }
+            if (mNamePrefix != null) {
+                addPrefixTerms(selection, args, PetEntry.COLUMN_PET_NAME, mNamePrefix);
+            }
+        }
+
+        /**
+         * Matches a prefix as the range [prefix, prefix with its last char incremented), which
+         * an index on the column reads directly. When the last char can't be incremented the
+         * range is left open and the prefix is checked on the rows it reads.
+         */
+        private static void addPrefixTerms(StringBuilder selection, ArrayList<String> args,
+                                           String column, String prefix) {
+            addTerm(selection, args, column + ">=?", prefix);
+            char last = prefix.charAt(prefix.length() - 1);
+            if (last < Character.MIN_SURROGATE) {
+                addTerm(selection, args, column + "<?",
+                        prefix.substring(0, prefix.length() - 1) + (char) (last + 1));
+            } else {
+                addTerm(selection, args, "substr(" + column + ",1," +
+                        prefix.codePointCount(0, prefix.length()) + ")=?", prefix);
+            }
+        }
+
+        private static void addTerm(StringBuilder selection, ArrayList<String> args, String term,
+                                    String arg) {
+            if (selection.length() > 0) {
+                selection.append(" AND ");
+            }
+            selection.append(term);
+            if (args != null && arg != null) {
+                args.add(arg);
+            }
+        }
+    }
+
+    /**
+     * Many pet operations sent to the provider as one call(), for example
+     * {@code resolver.call(CONTENT_URI, METHOD_BATCH, null, batch.toExtras())}. They run in one
+     * transaction, so a failing operation rolls back all of them, and go both ways as a handful
+     * of parallel arrays instead of one binder transaction and cursor window per operation.
+     *
+     * The answer holds under KEY_BATCH_RESULTS the result of every operation in order: the id of
+     * an inserted pet, the number of updated or deleted rows, and 1 or 0 for a get depending on
+     * whether the pet exists. The values of a found pet are at the same index of the KEY_BATCH_
+     * name, breed, gender and weight arrays. A gender or weight that is NULL, sent or answered,
+     * is false in KEY_BATCH_HAS_GENDERS or KEY_BATCH_HAS_WEIGHTS, its int being 0.
+     *
+     * A call has to fit in a binder transaction (1MB for everything in flight in the process),
+     * so send large workloads as batches of about a thousand operations.
+     */
+    public static final class PetBatch {
+
+        //the kinds of operation, as sent under KEY_BATCH_OPERATIONS
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+        public static final int OPERATION_GET = 4;
+
+        private int mSize;
+        private int[] mOperations = new int[16];
+        private long[] mIds = new long[16];
+        private String[] mNames = new String[16];
+        private String[] mBreeds = new String[16];
+        private int[] mGenders = new int[16];
+        private int[] mWeights = new int[16];
+        private boolean[] mHasGenders = new boolean[16];
+        private boolean[] mHasWeights = new boolean[16];
+
+        //inserts a new pet, the result is its id
+        public PetBatch insert(PetRecord pet) {
+            return add(OPERATION_INSERT, 0, pet);
+        }
+
+        //updates every value of a pet like PetProvider.updatePet(long, PetRecord) does
+        public PetBatch update(long id, PetRecord pet) {
+            return add(OPERATION_UPDATE, id, pet);
+        }
+
+        public PetBatch delete(long id) {
+            return add(OPERATION_DELETE, id, null);
+        }
+
+        //reads a pet, its values come back in the answer
+        public PetBatch get(long id) {
+            return add(OPERATION_GET, id, null);
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        //forgets the operations, so the batch can be reused
+        public PetBatch clear() {
+            Arrays.fill(mNames, 0, mSize, null);
+            Arrays.fill(mBreeds, 0, mSize, null);
+            mSize = 0;
+            return this;
+        }
+
+        /**
+         * The extras of the METHOD_BATCH call, arrays trimmed to the number of operations.
+         */
+        public Bundle toExtras() {
+            Bundle extras = new Bundle();
+            extras.putIntArray(KEY_BATCH_OPERATIONS, Arrays.copyOf(mOperations, mSize));
+            extras.putLongArray(KEY_BATCH_IDS, Arrays.copyOf(mIds, mSize));
+            extras.putStringArray(KEY_BATCH_NAMES, Arrays.copyOf(mNames, mSize));
+            extras.putStringArray(KEY_BATCH_BREEDS, Arrays.copyOf(mBreeds, mSize));
+            extras.putIntArray(KEY_BATCH_GENDERS, Arrays.copyOf(mGenders, mSize));
+            extras.putIntArray(KEY_BATCH_WEIGHTS, Arrays.copyOf(mWeights, mSize));
+            extras.putBooleanArray(KEY_BATCH_HAS_GENDERS, Arrays.copyOf(mHasGenders, mSize));
+            extras.putBooleanArray(KEY_BATCH_HAS_WEIGHTS, Arrays.copyOf(mHasWeights, mSize));
+            return extras;
+        }
+
+        private PetBatch add(int operation, long id, PetRecord pet) {
+            if (mSize == mOperations.length) {
+                int capacity = mSize * 2;
+                mOperations = Arrays.copyOf(mOperations, capacity);
+                mIds = Arrays.copyOf(mIds, capacity);
+                mNames = Arrays.copyOf(mNames, capacity);
+                mBreeds = Arrays.copyOf(mBreeds, capacity);
+                mGenders = Arrays.copyOf(mGenders, capacity);
+                mWeights = Arrays.copyOf(mWeights, capacity);
+                mHasGenders = Arrays.copyOf(mHasGenders, capacity);
+                mHasWeights = Arrays.copyOf(mHasWeights, capacity);
+            }
+            mOperations[mSize] = operation;
+            mIds[mSize] = id;
+            if (pet != null) {
+                mNames[mSize] = pet.getName();
+                mBreeds[mSize] = pet.getBreed();
+                mGenders[mSize] = pet.getGender();
+                mWeights[mSize] = pet.getWeight();
+                mHasGenders[mSize] = pet.hasGender();
+                mHasWeights[mSize] = pet.hasWeight();
+            } else {
+                mNames[mSize] = null;
+                mBreeds[mSize] = null;
+                mGenders[mSize] = 0;
+                mWeights[mSize] = 0;
+                mHasGenders[mSize] = false;
+                mHasWeights[mSize] = false;
+            }
+            mSize++;
+            return this;
+        }
+    }
+
+    //this one is for the full text index of the "Pets" table, it is kept in sync by triggers
+    //and its docid is the _id of the indexed pet
+    public static final class PetSearchEntry {
+
+        //constants for the full text table and its columns` names
+        public static final String TABLE_NAME = "PetsFts";
+        public static final String COLUMN_DOCID = "docid";
+        public static final String COLUMN_PET_NAME = PetEntry.COLUMN_PET_NAME;
+        public static final String COLUMN_PET_BREED = PetEntry.COLUMN_PET_BREED;
+    }
+
+    //this one is for the "PetChanges" log, one row per inserted, updated or deleted pet appended
+    //by triggers while at least one consumer is registered. The pet values themselves are not
+    //logged, consumers read the pets that changed, for example with a PetBatch of gets
+    public static final class PetChangeEntry {
+
+        //constant to the uri of the change log, the changes come in sequence order
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        //constants for the log table and its columns` names
+        public static final String TABLE_NAME = "PetChanges";
+        //increases with every change and is never reused, even once the log is compacted
+        public static final String COLUMN_SEQUENCE = "seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        //one of the CHANGE_ values
+        public static final String COLUMN_OPERATION = "operation";
+        //when the change was made, in milliseconds since the epoch
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+
+        //the table of the registered consumers and the sequence each one acknowledged
+        public static final String CONSUMERS_TABLE_NAME = "PetChangeConsumers";
+        public static final String COLUMN_CONSUMER_NAME = "name";
+        public static final String COLUMN_ACKED_SEQUENCE = "acked_seq";
+
+        /**
+         * Builds the uri of at most limit changes after the given sequence, a limit of 0 means
+         * all of them. The next page starts after the sequence of the last change.
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since));
+            if (limit > 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            }
+            return builder.build();
+        }
+    }
+
+    //this one is for the tables of the registry sync: PetSyncMap ties every synced pet to the id it
+    //has in the registry, with the version (time and origin) of the last change sync saw of it, and
+    //PetSyncState holds the sync settings and cursors by name
+    public static final class PetSyncEntry {
+
+        public static final String TABLE_NAME = "PetSyncMap";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_GLOBAL_ID = "global_id";
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+        public static final String COLUMN_ORIGIN = "origin";
+        //the change log sequence once a pulled change was written, the log entries up to it made
+        //by the pull are not pushed back
+        public static final String COLUMN_PULLED_SEQUENCE = "pulled_seq";
+
+        public static final String STATE_TABLE_NAME = "PetSyncState";
+        public static final String COLUMN_STATE_NAME = "name";
+        public static final String COLUMN_STATE_VALUE = "value";
+    }
+
+    //this one is for the "PetStats" summary table, holding the totals of the pets table per
+    //dimension. It is kept up to date by triggers, so reading it doesn't depend on the number of pets
+    public static final class PetStatsEntry {
+
+        //constant to the uri of the statistics, one row per dimension and key
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        //constants for the summary table and its columns` names
+        public static final String TABLE_NAME = "PetStats";
+        public static final String COLUMN_DIMENSION = "dimension";
+        //the gender or breed the row is about, as text. Empty for the all dimension
+        public static final String COLUMN_KEY = "key";
+        public static final String COLUMN_COUNT = "count";
+        //the number of pets with a known weight, and the sum of their weights
+        public static final String COLUMN_WEIGHT_COUNT = "weight_count";
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+
+        //columns computed when the uri is queried, they are not stored in the table
+        public static final String COLUMN_WEIGHT_AVG = "weight_avg";
+        public static final String COLUMN_WEIGHT_MIN = "weight_min";
+        public static final String COLUMN_WEIGHT_MAX = "weight_max";
+
+        //values of the dimension column
+        public static final String DIMENSION_ALL = "all";
+        public static final String DIMENSION_GENDER = "gender";
+        public static final String DIMENSION_BREED = "breed";
+    }
+
+    //this one is for the read-only metrics of the provider, they live in memory only and are
+    //reset when the provider process restarts
+    public static final class ProviderStatsEntry {
+
+        //uri with one row per operation and uri kind: counts, rows and latencies in microseconds
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_PROVIDER_STATS);
+        //uri with the latest operations slower than the threshold, oldest first
+        public static final Uri SLOW_LOG_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SLOW_LOG);
+
+        //columns of both uris
+        public static final String COLUMN_OPERATION = "operation";
+        public static final String COLUMN_MATCH = "match";
+        public static final String COLUMN_ROWS = "rows";
+
+        //columns of the metrics uri, percentiles are rounded up to a power of two
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_TOTAL_MICROS = "total_micros";
+        public static final String COLUMN_P50_MICROS = "p50_micros";
+        public static final String COLUMN_P90_MICROS = "p90_micros";
+        public static final String COLUMN_P99_MICROS = "p99_micros";
+        public static final String COLUMN_MAX_MICROS = "max_micros";
+
+        //columns of the slow operations log uri, the uri column only holds the authority so
+        //no search terms or other parameters are kept
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+        public static final String COLUMN_URI = "uri";
+        public static final String COLUMN_MICROS = "micros";
+
+        public static final String[] STATS_COLUMNS = {COLUMN_OPERATION, COLUMN_MATCH, COLUMN_COUNT,
+                COLUMN_ROWS, COLUMN_TOTAL_MICROS, COLUMN_P50_MICROS, COLUMN_P90_MICROS,
+                COLUMN_P99_MICROS, COLUMN_MAX_MICROS};
+        public static final String[] SLOW_COLUMNS = {COLUMN_TIMESTAMP, COLUMN_OPERATION,
+                COLUMN_MATCH, COLUMN_URI, COLUMN_MICROS, COLUMN_ROWS};
     }
 }
@@ -0,0 +1,67 @@
+package com.example.android.pets.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts the sync requests to a registry over HTTP. The bodies already are gzip compressed, so
+ * they are sent with a Content-Encoding header and a fixed length, and the answers are read back
+ * as they are.
+ */
+public class HttpRegistryTransport implements RegistryTransport {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final String mBaseUrl;
+
+    //the base url has no trailing slash, the endpoint paths are appended to it
+    public HttpRegistryTransport(String baseUrl) {
+        mBaseUrl = baseUrl;
+    }
+
+    @Override
+    public byte[] post(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mBaseUrl + path).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            //asked for by hand, so HttpURLConnection leaves the answer compressed
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("registry answered " + status + " to " + path);
+            }
+            InputStream in = connection.getInputStream();
+            try {
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    answer.write(buffer, 0, read);
+                }
+                return answer.toByteArray();
+            } finally {
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.pets.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.pets.data.PetSyncStore;
+
+import java.io.IOException;
+
+/**
+ * Syncs the pets of this branch with the shelter registry: pushes the pets changed since the
+ * last push, then pulls what other branches changed since the last pull, both in batches. The
+ * work is proportional to the changes, not to the table, and every batch is committed on its
+ * own side before the next one starts, so an interrupted sync picks up where it stopped.
+ */
+public class PetSyncEngine {
+
+    private static final String LOG_TAG = PetSyncEngine.class.getSimpleName();
+
+    //change log entries per push and changes per pull
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * What one sync did.
+     */
+    public static final class Result {
+        private int mPushed;
+        private int mAccepted;
+        private int mPulled;
+        private int mApplied;
+        private int mRoundTrips;
+        private long mBytesSent;
+        private long mBytesReceived;
+
+        //changes sent to the registry, and how many of them it kept
+        public int getPushed() {
+            return mPushed;
+        }
+
+        public int getAccepted() {
+            return mAccepted;
+        }
+
+        //changes received from the registry, and how many of them changed a pet here
+        public int getPulled() {
+            return mPulled;
+        }
+
+        public int getApplied() {
+            return mApplied;
+        }
+
+        public int getRoundTrips() {
+            return mRoundTrips;
+        }
+
+        //compressed body bytes
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "pushed " + mPushed + " (" + mAccepted + " accepted), pulled " + mPulled + " ("
+                    + mApplied + " applied), " + mRoundTrips + " round trips, " + mBytesSent
+                    + " bytes sent, " + mBytesReceived + " bytes received";
+        }
+    }
+
+    private final PetSyncStore mStore;
+    private final RegistryTransport mTransport;
+
+    public PetSyncEngine(Context context, RegistryTransport transport) {
+        mStore = new PetSyncStore(context);
+        mTransport = transport;
+    }
+
+    /**
+     * Runs one sync, blocking, so it has to be called off the main thread. A failed request
+     * throws, the batches before it stay synced.
+     */
+    public Result sync() throws IOException {
+        Result result = new Result();
+        String origin = mStore.getOrigin();
+
+        //push until the change log is drained, a batch is acknowledged once the registry has it
+        while (true) {
+            PetSyncStore.OutgoingBatch batch = mStore.readOutgoing(BATCH_SIZE);
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (!batch.getChanges().isEmpty()) {
+                byte[] body = SyncCodec.encodePush(origin, batch.getChanges());
+                byte[] answer = mTransport.post(RegistryTransport.PATH_PUSH, body);
+                result.mPushed += batch.getChanges().size();
+                result.mAccepted += SyncCodec.decodePushAnswer(answer);
+                result.mRoundTrips++;
+                result.mBytesSent += body.length;
+                result.mBytesReceived += answer.length;
+            }
+            //also acknowledges batches of echoes and deletes of never pushed pets
+            mStore.markPushed(batch);
+        }
+
+        //pull until the registry has nothing more, the cursor commits with the applied changes
+        boolean more = true;
+        while (more) {
+            byte[] body = SyncCodec.encodePull(origin, mStore.getPullCursor(), BATCH_SIZE);
+            byte[] answer = mTransport.post(RegistryTransport.PATH_PULL, body);
+            SyncCodec.PullAnswer pull = SyncCodec.decodePullAnswer(answer);
+            result.mPulled += pull.mChanges.size();
+            result.mApplied += mStore.applyIncoming(pull.mChanges, pull.mCursor);
+            result.mRoundTrips++;
+            result.mBytesSent += body.length;
+            result.mBytesReceived += answer.length;
+            more = pull.mMore;
+        }
+
+        Log.i(LOG_TAG, "sync: " + result);
+        return result;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.android.pets.sync;
+
+import java.io.IOException;
+
+/**
+ * Carries the requests of the sync to the registry and brings back its answers. Bodies are gzip
+ * compressed JSON made by {@link SyncCodec}, the transport only moves the bytes, so the same sync
+ * runs against the real registry or a stand-in.
+ */
+public interface RegistryTransport {
+
+    //the registry endpoints
+    String PATH_PUSH = "/push";
+    String PATH_PULL = "/pull";
+
+    /**
+     * Sends a request body to the endpoint and returns the body of the answer. Throws an
+     * IOException when the registry can't be reached or doesn't answer with success.
+     */
+    byte[] post(String path, byte[] body) throws IOException;
+}
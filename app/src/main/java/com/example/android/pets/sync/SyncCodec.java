@@ -0,0 +1,277 @@
+package com.example.android.pets.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetSyncChange;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The registry protocol, gzip compressed JSON streamed in and out without building a tree:
+ *
+ * push: {"origin":o,"changes":[change...]} answered by {"accepted":n}
+ * pull: {"origin":o,"since":s,"limit":l} answered by {"changes":[change...],"cursor":c,"more":b}
+ *
+ * A change is {"id","name","breed","gender","weight","deleted","changed_at","origin","seq"},
+ * gender and weight are null when the pet has none. A pull answers the changes of other
+ * origins after the since cursor, and the next pull starts after the answered cursor.
+ */
+final class SyncCodec {
+
+    /** A push as the registry reads it */
+    static final class PushRequest {
+        final String mOrigin;
+        final List<PetSyncChange> mChanges;
+
+        PushRequest(String origin, List<PetSyncChange> changes) {
+            mOrigin = origin;
+            mChanges = changes;
+        }
+    }
+
+    /** A pull as the registry reads it */
+    static final class PullRequest {
+        final String mOrigin;
+        final long mSince;
+        final int mLimit;
+
+        PullRequest(String origin, long since, int limit) {
+            mOrigin = origin;
+            mSince = since;
+            mLimit = limit;
+        }
+    }
+
+    /** The answer to a pull */
+    static final class PullAnswer {
+        final List<PetSyncChange> mChanges;
+        final long mCursor;
+        final boolean mMore;
+
+        PullAnswer(List<PetSyncChange> changes, long cursor, boolean more) {
+            mChanges = changes;
+            mCursor = cursor;
+            mMore = more;
+        }
+    }
+
+    private SyncCodec() {
+    }
+
+    static byte[] encodePush(String origin, List<PetSyncChange> changes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = openWriter(bytes);
+        writer.beginObject();
+        writer.name("origin").value(origin);
+        writeChanges(writer, changes);
+        writer.endObject();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    static PushRequest decodePush(byte[] body) throws IOException {
+        JsonReader reader = openReader(body);
+        String origin = null;
+        List<PetSyncChange> changes = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("origin")) {
+                origin = reader.nextString();
+            } else if (name.equals("changes")) {
+                readChanges(reader, changes);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        reader.close();
+        return new PushRequest(origin, changes);
+    }
+
+    static byte[] encodePushAnswer(int accepted) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = openWriter(bytes);
+        writer.beginObject().name("accepted").value(accepted).endObject();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    //the number of changes the registry took, the others lost against newer versions
+    static int decodePushAnswer(byte[] body) throws IOException {
+        JsonReader reader = openReader(body);
+        int accepted = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("accepted")) {
+                accepted = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        reader.close();
+        return accepted;
+    }
+
+    static byte[] encodePull(String origin, long since, int limit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = openWriter(bytes);
+        writer.beginObject();
+        writer.name("origin").value(origin);
+        writer.name("since").value(since);
+        writer.name("limit").value(limit);
+        writer.endObject();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    static PullRequest decodePull(byte[] body) throws IOException {
+        JsonReader reader = openReader(body);
+        String origin = null;
+        long since = 0;
+        int limit = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("origin")) {
+                origin = reader.nextString();
+            } else if (name.equals("since")) {
+                since = reader.nextLong();
+            } else if (name.equals("limit")) {
+                limit = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        reader.close();
+        return new PullRequest(origin, since, limit);
+    }
+
+    static byte[] encodePullAnswer(List<PetSyncChange> changes, long cursor, boolean more)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = openWriter(bytes);
+        writer.beginObject();
+        writeChanges(writer, changes);
+        writer.name("cursor").value(cursor);
+        writer.name("more").value(more);
+        writer.endObject();
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    static PullAnswer decodePullAnswer(byte[] body) throws IOException {
+        JsonReader reader = openReader(body);
+        List<PetSyncChange> changes = new ArrayList<>();
+        long cursor = 0;
+        boolean more = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("changes")) {
+                readChanges(reader, changes);
+            } else if (name.equals("cursor")) {
+                cursor = reader.nextLong();
+            } else if (name.equals("more")) {
+                more = reader.nextBoolean();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        reader.close();
+        return new PullAnswer(changes, cursor, more);
+    }
+
+    private static JsonWriter openWriter(ByteArrayOutputStream bytes) throws IOException {
+        return new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8"));
+    }
+
+    private static JsonReader openReader(byte[] body) throws IOException {
+        return new JsonReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(body)), "UTF-8"));
+    }
+
+    private static void writeChanges(JsonWriter writer, List<PetSyncChange> changes) throws IOException {
+        writer.name("changes").beginArray();
+        for (PetSyncChange change : changes) {
+            writer.beginObject();
+            writer.name("id").value(change.getGlobalId());
+            if (change.isDeleted()) {
+                writer.name("deleted").value(true);
+            } else {
+                writer.name("name").value(change.getName());
+                writer.name("breed").value(change.getBreed());
+                //a missing value is written as null
+                writer.name("gender").value(change.getGender());
+                writer.name("weight").value(change.getWeight());
+            }
+            writer.name("changed_at").value(change.getChangedAt());
+            writer.name("origin").value(change.getOrigin());
+            if (change.getSequence() != 0) {
+                writer.name("seq").value(change.getSequence());
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    private static void readChanges(JsonReader reader, List<PetSyncChange> changes) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String id = null;
+            String petName = null;
+            String breed = null;
+            Integer gender = null;
+            Integer weight = null;
+            boolean deleted = false;
+            long changedAt = 0;
+            String origin = null;
+            long sequence = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (name.equals("id")) {
+                    id = reader.nextString();
+                } else if (name.equals("name")) {
+                    petName = reader.nextString();
+                } else if (name.equals("breed")) {
+                    breed = reader.nextString();
+                } else if (name.equals("gender")) {
+                    gender = reader.nextInt();
+                } else if (name.equals("weight")) {
+                    weight = reader.nextInt();
+                } else if (name.equals("deleted")) {
+                    deleted = reader.nextBoolean();
+                } else if (name.equals("changed_at")) {
+                    changedAt = reader.nextLong();
+                } else if (name.equals("origin")) {
+                    origin = reader.nextString();
+                } else if (name.equals("seq")) {
+                    sequence = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (id == null || origin == null) {
+                throw new IOException("change without id or origin");
+            }
+            changes.add(new PetSyncChange(id, petName, breed, gender, weight, deleted, changedAt, origin, sequence));
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The shelter database schema as PetDbHelper builds it: the version 1 table followed by every
+ * migration step, plus the connection settings PetDbHelper applies in onOpen().
+ * Keep it in step with PetDbHelper.MIGRATIONS, or the numbers and the migration tests stop
+ * meaning anything.
+ */
+final class BenchmarkSchema {
+
+    static final String TABLE_NAME = "Pets";
+    static final String FTS_TABLE_NAME = "PetsFts";
+
+    //condition of the change log triggers, as in PetDbHelper
+    private static final String CHANGE_CONSUMERS_EXIST = "EXISTS (SELECT 1 FROM PetChangeConsumers)";
+
+    //the version 1 table, as PetDbHelper.DB_CREATE_TABLE_COMMAND
+    static final String CREATE_VERSION_1 =
+            "CREATE TABLE Pets(_id INTEGER PRIMARY KEY,name TEXT,breed TEXT,gender INTEGER,weight INTEGER)";
+
+    /**
+     * The migration steps, MIGRATIONS[i] takes the database from version i + 1 to i + 2, like
+     * PetDbHelper.MIGRATIONS. The backfills are kept so an upgraded database can be checked too.
+     */
+    static final String[][] MIGRATIONS = {
+            // 1 -> 2
+            {
+                    "CREATE INDEX IF NOT EXISTS pets_name_idx ON Pets(name)",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_idx ON Pets(breed)",
+                    "CREATE INDEX IF NOT EXISTS pets_gender_weight_idx ON Pets(gender,weight)"
+            },
+            // 2 -> 3
+            {
+                    "CREATE VIRTUAL TABLE PetsFts USING fts4(name,breed)",
+                    "INSERT INTO PetsFts(docid,name,breed) SELECT _id,name,breed FROM Pets",
+                    "CREATE TRIGGER pets_fts_insert AFTER INSERT ON Pets BEGIN " +
+                            "INSERT INTO PetsFts(docid,name,breed) VALUES (new._id,new.name,new.breed); END",
+                    "CREATE TRIGGER pets_fts_update AFTER UPDATE OF name,breed ON Pets BEGIN " +
+                            "UPDATE PetsFts SET name=new.name,breed=new.breed WHERE docid=old._id; END",
+                    "CREATE TRIGGER pets_fts_delete AFTER DELETE ON Pets BEGIN " +
+                            "DELETE FROM PetsFts WHERE docid=old._id; END"
+            },
+            // 3 -> 4
+            {
+                    "CREATE TABLE PetStats(dimension TEXT NOT NULL,key TEXT NOT NULL,count INTEGER NOT NULL," +
+                            "weight_count INTEGER NOT NULL,weight_sum INTEGER NOT NULL,PRIMARY KEY(dimension,key))",
+                    "INSERT INTO PetStats SELECT 'all','',COUNT(*),COUNT(weight),IFNULL(SUM(weight),0) FROM Pets " +
+                            "UNION ALL SELECT 'gender',IFNULL(CAST(gender AS TEXT),''),COUNT(*),COUNT(weight)," +
+                            "IFNULL(SUM(weight),0) FROM Pets GROUP BY gender " +
+                            "UNION ALL SELECT 'breed',IFNULL(CAST(breed AS TEXT),''),COUNT(*),COUNT(weight)," +
+                            "IFNULL(SUM(weight),0) FROM Pets GROUP BY breed",
+                    "DROP INDEX IF EXISTS pets_breed_idx",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_weight_idx ON Pets(breed,weight)",
+                    "CREATE TRIGGER pets_stats_insert AFTER INSERT ON Pets BEGIN " + statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_update AFTER UPDATE OF breed,gender,weight ON Pets BEGIN " +
+                            statsChange("old", false) + statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_delete AFTER DELETE ON Pets BEGIN " + statsChange("old", false) + " END"
+            },
+            // 4 -> 5
+            {
+                    "ALTER TABLE Pets ADD COLUMN deleted INTEGER NOT NULL DEFAULT 0",
+                    "CREATE INDEX IF NOT EXISTS pets_deleted_idx ON Pets(deleted)",
+                    "DROP TRIGGER IF EXISTS pets_stats_insert",
+                    "DROP TRIGGER IF EXISTS pets_stats_update",
+                    "DROP TRIGGER IF EXISTS pets_stats_delete",
+                    "CREATE TRIGGER pets_stats_insert AFTER INSERT ON Pets WHEN new.deleted=0 BEGIN " +
+                            statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_update_old AFTER UPDATE OF breed,gender,weight,deleted ON Pets " +
+                            "WHEN old.deleted=0 BEGIN " + statsChange("old", false) + " END",
+                    "CREATE TRIGGER pets_stats_update_new AFTER UPDATE OF breed,gender,weight,deleted ON Pets " +
+                            "WHEN new.deleted=0 BEGIN " + statsChange("new", true) + " END",
+                    "CREATE TRIGGER pets_stats_delete AFTER DELETE ON Pets WHEN old.deleted=0 BEGIN " +
+                            statsChange("old", false) + " END",
+                    "CREATE TRIGGER pets_fts_tombstone AFTER UPDATE OF deleted ON Pets WHEN new.deleted=1 BEGIN " +
+                            "DELETE FROM PetsFts WHERE docid=old._id; END"
+            },
+            // 5 -> 6, the JDBC driver has no LOCALIZED collation, NOCASE stands in for it
+            {
+                    "CREATE INDEX IF NOT EXISTS pets_name_sort_idx ON Pets(deleted,name COLLATE NOCASE,_id)",
+                    "CREATE INDEX IF NOT EXISTS pets_breed_sort_idx ON Pets(deleted,breed,_id)",
+                    "CREATE INDEX IF NOT EXISTS pets_weight_sort_idx ON Pets(deleted,weight,_id)",
+                    "DROP INDEX IF EXISTS pets_deleted_idx"
+            },
+            // 6 -> 7
+            {
+                    "ALTER TABLE Pets ADD COLUMN photo TEXT"
+            },
+            // 7 -> 8
+            {
+                    "CREATE TABLE PetChanges (seq INTEGER PRIMARY KEY AUTOINCREMENT, pet_id INTEGER NOT NULL, " +
+                            "operation TEXT NOT NULL, changed_at INTEGER NOT NULL)",
+                    "CREATE TABLE PetChangeConsumers (name TEXT PRIMARY KEY, acked_seq INTEGER NOT NULL)",
+                    "CREATE TRIGGER pets_changes_insert AFTER INSERT ON Pets WHEN " + CHANGE_CONSUMERS_EXIST +
+                            " BEGIN " + changeLogInsert("insert") + " END",
+                    "CREATE TRIGGER pets_changes_update AFTER UPDATE OF name,breed,gender,weight,photo ON Pets " +
+                            "WHEN new.deleted=0 AND " + CHANGE_CONSUMERS_EXIST + " BEGIN " +
+                            changeLogInsert("update") + " END",
+                    "CREATE TRIGGER pets_changes_delete AFTER UPDATE OF deleted ON Pets WHEN new.deleted=1 AND " +
+                            "old.deleted=0 AND " + CHANGE_CONSUMERS_EXIST + " BEGIN " + changeLogInsert("delete") + " END"
+            },
+            // 8 -> 9
+            {
+                    "CREATE TABLE PetSyncMap (pet_id INTEGER PRIMARY KEY, global_id TEXT NOT NULL UNIQUE, " +
+                            "changed_at INTEGER NOT NULL, origin TEXT NOT NULL, pulled_seq INTEGER NOT NULL DEFAULT 0)",
+                    "CREATE TABLE PetSyncState (name TEXT PRIMARY KEY, value TEXT)"
+            },
+            // 9 -> 10, with the prefix indexes of API 16 and later
+            {
+                    "DROP TABLE IF EXISTS PetsFts",
+                    "CREATE VIRTUAL TABLE PetsFts USING fts4(name,breed,prefix=\"1,2,3\")",
+                    "INSERT INTO PetsFts(docid,name,breed) SELECT _id,name,breed FROM Pets WHERE deleted=0"
+            }
+    };
+
+    /** The version the migrations end at, PetDbHelper.DATABASE_VERSION */
+    static final int VERSION = MIGRATIONS.length + 1;
+
+    private BenchmarkSchema() {
+    }
+
+    //same statement as PetDbHelper.changeLogInsert()
+    private static String changeLogInsert(String operation) {
+        return "INSERT INTO PetChanges(pet_id,operation,changed_at) VALUES (new._id,'" + operation +
+                "',CAST((julianday('now')-2440587.5)*86400000 AS INTEGER));";
+    }
+
+    //same statements as PetDbHelper.statsChange()
+    private static String statsChange(String row, boolean add) {
+        String sign = add ? "+" : "-";
+        String update = "UPDATE PetStats SET count=count" + sign + "1,weight_count=weight_count" + sign +
+                "(" + row + ".weight IS NOT NULL),weight_sum=weight_sum" + sign + "IFNULL(" + row +
+                ".weight,0) WHERE dimension=";
+        StringBuilder statements = new StringBuilder(update).append("'all';");
+        for (String dimension : new String[] {"gender", "breed"}) {
+            String key = "IFNULL(CAST(" + row + "." + dimension + " AS TEXT),'')";
+            String where = "'" + dimension + "' AND key=" + key;
+            if (add) {
+                statements.append("INSERT OR IGNORE INTO PetStats VALUES ('").append(dimension).append("',")
+                        .append(key).append(",0,0,0);");
+            }
+            statements.append(update).append(where).append(";");
+            if (!add) {
+                statements.append("DELETE FROM PetStats WHERE dimension=").append(where).append(" AND count=0;");
+            }
+        }
+        return statements.toString();
+    }
+
+    /**
+     * Applies the PetDbHelper connection settings (incremental auto vacuum, write ahead logging,
+     * synchronous NORMAL) and creates the schema on an empty database.
+     */
+    static void create(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA auto_vacuum=INCREMENTAL");
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("PRAGMA wal_autocheckpoint=1000");
+            statement.execute(CREATE_VERSION_1);
+        }
+        migrate(connection, 1, VERSION);
+    }
+
+    /**
+     * Runs the migration steps taking a database from one version to another, like
+     * PetDbHelper.onUpgrade() does, in one transaction.
+     */
+    static void migrate(Connection connection, int fromVersion, int toVersion) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            for (int version = fromVersion; version < toVersion; version++) {
+                for (String sql : MIGRATIONS[version - 1]) {
+                    statement.execute(sql);
+                }
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.pets.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Collects the latency of every run of one operation and summarizes it.
+ */
+final class LatencyStats {
+
+    private long[] mNanos = new long[1024];
+    private int mCount;
+    private long mTotalNanos;
+
+    void record(long nanos) {
+        if (mCount == mNanos.length) {
+            mNanos = Arrays.copyOf(mNanos, mCount * 2);
+        }
+        mNanos[mCount++] = nanos;
+        mTotalNanos += nanos;
+    }
+
+    int count() {
+        return mCount;
+    }
+
+    double opsPerSecond() {
+        return mTotalNanos == 0 ? 0 : mCount * 1e9 / mTotalNanos;
+    }
+
+    /** The given percentile (0-100) of the recorded latencies, in microseconds */
+    double percentileMicros(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mNanos, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * mCount) - 1;
+        return sorted[Math.max(0, Math.min(mCount - 1, index))] / 1000.0;
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the PetProvider CRUD paths at several table sizes on a plain JVM and writes the
+ * results as a JSON baseline. Given an earlier baseline, it also prints the change of every
+ * number and exits with 1 when an operation got slower than the allowed threshold.
+ *
+ * Arguments: [--sizes 1000,100000,1000000] [--ops 2000] [--out baselines/current.json]
+ * [--baseline baselines/baseline.json] [--threshold 10]
+ */
+public class PetBenchmark {
+
+    private static final String[] NAMES = {"Totto", "Bella", "Max", "Luna", "Charlie", "Lucy",
+            "Cooper", "Daisy", "Rocky", "Molly", "Buddy", "Coco"};
+    private static final String[] BREEDS = {"Terrier", "Tabby", "Labrador", "Beagle", "Persian",
+            "Poodle", "Siamese", "Boxer"};
+
+    /** Size of a catalog page, same as CatalogActivity.PAGE_SIZE */
+    private static final int PAGE_SIZE = 50;
+
+    /** Rows inserted per transaction when the table is filled before measuring */
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    /** Matches one result line of a baseline file written by writeResults() */
+    private static final Pattern RESULT_PATTERN = Pattern.compile(
+            "\"operation\": \"(\\w+)\", \"rows\": (\\d+), \"ops\": \\d+, \"opsPerSecond\": ([\\d.]+), " +
+                    "\"p50Micros\": ([\\d.]+), \"p99Micros\": ([\\d.]+)");
+
+    private final Random mRandom = new Random(42);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int ops = Integer.parseInt(get(options, "ops", "2000"));
+        File out = new File(get(options, "out", "baselines/current.json"));
+
+        List<Result> results = new ArrayList<>();
+        PetBenchmark benchmark = new PetBenchmark();
+        //one untimed round on a small table, so the JIT and the driver are warm for the real ones
+        System.out.println("warming up");
+        benchmark.run(1000, ops);
+        for (String size : get(options, "sizes", "1000,100000,1000000").split(",")) {
+            results.addAll(benchmark.run(Integer.parseInt(size.trim()), ops));
+        }
+        writeResults(results, out);
+        System.out.println("results written to " + out.getPath());
+
+        if (options.containsKey("baseline")) {
+            double threshold = Double.parseDouble(get(options, "threshold", "10"));
+            if (compare(readResults(new File(options.get("baseline"))), results, threshold)) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Fills a fresh database with the given number of pets and measures every operation on it.
+     */
+    private List<Result> run(int rows, int ops) throws SQLException, IOException {
+        File databaseFile = File.createTempFile("shelter-benchmark", ".db");
+        List<Result> results = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getPath())) {
+            BenchmarkSchema.create(connection);
+            fill(connection, rows);
+            System.out.println(rows + " rows:");
+
+            try (PetStore store = new PetStore(connection)) {
+                //the table keeps its size: ops pets are inserted, then updated, then deleted again
+                long firstInsertedId = rows + 1;
+                LatencyStats stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    long start = System.nanoTime();
+                    store.insertPet(randomName(), randomBreed(), mRandom.nextInt(3), 1 + mRandom.nextInt(60));
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("insertPet", rows, stats));
+
+                stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    long id = 1 + (long) mRandom.nextInt(rows);
+                    long start = System.nanoTime();
+                    store.updatePet(id, randomName(), randomBreed(), mRandom.nextInt(3), 1 + mRandom.nextInt(60));
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("updatePet", rows, stats));
+
+                stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    long start = System.nanoTime();
+                    store.deletePet(firstInsertedId + i);
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("deletePet", rows, stats));
+
+                stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    long afterId = mRandom.nextInt(rows);
+                    long start = System.nanoTime();
+                    store.queryPage(afterId, PAGE_SIZE);
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("queryPetsPage", rows, stats));
+
+                stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    String afterName = randomName();
+                    long afterId = mRandom.nextInt(rows);
+                    long start = System.nanoTime();
+                    store.queryNamePage(afterName, afterId, PAGE_SIZE);
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("queryNamePage", rows, stats));
+
+                stats = new LatencyStats();
+                for (int i = 0; i < ops; i++) {
+                    long id = 1 + (long) mRandom.nextInt(rows);
+                    long start = System.nanoTime();
+                    store.queryPet(id);
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("queryPetId", rows, stats));
+
+                //full scans are long, keep their total work around a couple of million rows
+                int scans = Math.max(3, Math.min(ops, 2000000 / rows));
+                stats = new LatencyStats();
+                for (int i = 0; i < scans; i++) {
+                    long start = System.nanoTime();
+                    store.scanCatalog();
+                    stats.record(System.nanoTime() - start);
+                }
+                results.add(report("scanCatalog", rows, stats));
+            }
+        } finally {
+            deleteDatabase(databaseFile);
+        }
+        return results;
+    }
+
+    //inserts the starting pets in large transactions, ids end up 1..rows. The pets are the
+    //app's generated dataset, so every size starts from the same pets as the debug menu's
+    private void fill(Connection connection, int rows) throws SQLException {
+        PetDatasetGenerator generator = new PetDatasetGenerator(PetDatasetGenerator.DEFAULT_SEED);
+        PetRecord pet = new PetRecord();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO Pets (name,breed,gender,weight) VALUES (?,?,?,?)")) {
+            for (int i = 0; i < rows; i++) {
+                generator.next(pet);
+                insert.setString(1, pet.getName());
+                insert.setString(2, pet.getBreed());
+                insert.setInt(3, pet.getGender());
+                insert.setInt(4, pet.getWeight());
+                insert.addBatch();
+                if ((i + 1) % FILL_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private String randomName() {
+        return NAMES[mRandom.nextInt(NAMES.length)] + " " + mRandom.nextInt(1000);
+    }
+
+    private String randomBreed() {
+        return BREEDS[mRandom.nextInt(BREEDS.length)];
+    }
+
+    private static Result report(String operation, int rows, LatencyStats stats) {
+        Result result = new Result(operation, rows, stats.count(), stats.opsPerSecond(),
+                stats.percentileMicros(50), stats.percentileMicros(99));
+        System.out.println(String.format(Locale.US, "  %-14s %12.1f ops/s  p50 %10.1f us  p99 %10.1f us",
+                operation, result.opsPerSecond, result.p50Micros, result.p99Micros));
+        return result;
+    }
+
+    private static void writeResults(List<Result> results, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("{");
+            writer.println("  \"benchmark\": \"pets-provider\",");
+            writer.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                writer.println(String.format(Locale.US,
+                        "    {\"operation\": \"%s\", \"rows\": %d, \"ops\": %d, \"opsPerSecond\": %.1f, " +
+                                "\"p50Micros\": %.1f, \"p99Micros\": %.1f}%s",
+                        result.operation, result.rows, result.ops, result.opsPerSecond,
+                        result.p50Micros, result.p99Micros, i + 1 < results.size() ? "," : ""));
+            }
+            writer.println("  ]");
+            writer.println("}");
+        }
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), Charset.forName("UTF-8"))) {
+            Matcher matcher = RESULT_PATTERN.matcher(line);
+            if (matcher.find()) {
+                Result result = new Result(matcher.group(1), Integer.parseInt(matcher.group(2)), 0,
+                        Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4)),
+                        Double.parseDouble(matcher.group(5)));
+                results.put(result.key(), result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Prints how every result moved against the baseline. Returns true when the throughput or
+     * the p99 latency of any operation got worse by more than threshold percent.
+     */
+    private static boolean compare(Map<String, Result> baseline, List<Result> results, double threshold) {
+        boolean regressed = false;
+        System.out.println("against the baseline:");
+        for (Result result : results) {
+            Result before = baseline.get(result.key());
+            if (before == null) {
+                continue;
+            }
+            double throughputChange = percentChange(before.opsPerSecond, result.opsPerSecond);
+            double p99Change = percentChange(before.p99Micros, result.p99Micros);
+            boolean worse = throughputChange < -threshold || p99Change > threshold;
+            regressed |= worse;
+            System.out.println(String.format(Locale.US, "  %-14s %8d rows  throughput %+6.1f%%  p99 %+6.1f%%%s",
+                    result.operation, result.rows, throughputChange, p99Change, worse ? "  REGRESSION" : ""));
+        }
+        return regressed;
+    }
+
+    private static double percentChange(double before, double after) {
+        return before == 0 ? 0 : (after - before) * 100 / before;
+    }
+
+    private static void deleteDatabase(File databaseFile) {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            new File(databaseFile.getPath() + suffix).delete();
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String get(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /** The summary of one operation at one table size */
+    private static final class Result {
+        final String operation;
+        final int rows;
+        final int ops;
+        final double opsPerSecond;
+        final double p50Micros;
+        final double p99Micros;
+
+        Result(String operation, int rows, int ops, double opsPerSecond, double p50Micros,
+               double p99Micros) {
+            this.operation = operation;
+            this.rows = rows;
+            this.ops = ops;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+        }
+
+        String key() {
+            return operation + "@" + rows;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Runs the same SQL as the PetProvider operations, one method per provider path. Statements are
+ * prepared once, like the compiled statement cache of SQLiteDatabase does on the device.
+ */
+final class PetStore implements AutoCloseable {
+
+    /** Same threshold as PetProvider.MAX_ROW_NOTIFICATIONS */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    private final Connection mConnection;
+    private final PreparedStatement mInsert;
+    private final PreparedStatement mSelectChangedIds;
+    private final PreparedStatement mUpdateById;
+    private final PreparedStatement mDeleteById;
+    private final PreparedStatement mSelectPage;
+    private final PreparedStatement mSelectNamePage;
+    private final PreparedStatement mSelectById;
+    private final PreparedStatement mSelectCatalog;
+
+    PetStore(Connection connection) throws SQLException {
+        mConnection = connection;
+        mInsert = connection.prepareStatement(
+                "INSERT INTO Pets (name,breed,gender,weight) VALUES (?,?,?,?)");
+        mSelectChangedIds = connection.prepareStatement(
+                "SELECT _id FROM Pets WHERE (_id=?) AND +deleted=0 LIMIT " + (MAX_ROW_NOTIFICATIONS + 1));
+        mUpdateById = connection.prepareStatement(
+                "UPDATE Pets SET name=?,breed=?,gender=?,weight=? WHERE _id=? AND deleted=0");
+        mDeleteById = connection.prepareStatement("UPDATE Pets SET deleted=1 WHERE (_id=?) AND +deleted=0");
+        mSelectPage = connection.prepareStatement(
+                "SELECT _id,name,breed FROM Pets WHERE (+deleted=0) AND _id>? ORDER BY _id ASC LIMIT ?");
+        mSelectNamePage = connection.prepareStatement(
+                "SELECT _id,name,breed,weight FROM Pets WHERE (deleted=0) AND name COLLATE NOCASE>=? AND " +
+                        "(name COLLATE NOCASE>? OR _id>?) ORDER BY name COLLATE NOCASE ASC,_id ASC LIMIT ?");
+        mSelectById = connection.prepareStatement(
+                "SELECT _id,name,breed,gender,weight FROM Pets WHERE _id=? AND +deleted=0");
+        mSelectCatalog = connection.prepareStatement("SELECT _id,name,breed FROM Pets WHERE +deleted=0");
+    }
+
+    /** PetProvider.insertPet(): validation, then one auto committed insert */
+    long insertPet(String name, String breed, int gender, int weight) throws SQLException {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("invalid or empty name");
+        }
+        if (breed == null || breed.isEmpty()) {
+            breed = "Unknown";
+        }
+        bindPet(mInsert, name, breed, gender, weight);
+        mInsert.executeUpdate();
+        try (ResultSet keys = mInsert.getGeneratedKeys()) {
+            return keys.next() ? keys.getLong(1) : -1;
+        }
+    }
+
+    /** PetProvider.updatePet() for a PET_ID uri: the changed ids and the update in one transaction */
+    int updatePet(long id, String name, String breed, int gender, int weight) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            readChangedIds(id);
+            bindPet(mUpdateById, name, breed, gender, weight);
+            mUpdateById.setLong(5, id);
+            int rows = mUpdateById.executeUpdate();
+            mConnection.commit();
+            return rows;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /** PetProvider.deletePet() for a PET_ID uri: the changed ids and the tombstone in one transaction */
+    int deletePet(long id) throws SQLException {
+        mConnection.setAutoCommit(false);
+        try {
+            readChangedIds(id);
+            mDeleteById.setLong(1, id);
+            int rows = mDeleteById.executeUpdate();
+            mConnection.commit();
+            return rows;
+        } catch (SQLException e) {
+            mConnection.rollback();
+            throw e;
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    /** PETS query of one catalog page, returns the number of rows read */
+    int queryPage(long afterId, int limit) throws SQLException {
+        mSelectPage.setLong(1, afterId);
+        mSelectPage.setInt(2, limit);
+        return readAll(mSelectPage);
+    }
+
+    /** PETS query of one catalog page in the name order, returns the number of rows read */
+    int queryNamePage(String afterName, long afterId, int limit) throws SQLException {
+        mSelectNamePage.setString(1, afterName);
+        mSelectNamePage.setString(2, afterName);
+        mSelectNamePage.setLong(3, afterId);
+        mSelectNamePage.setInt(4, limit);
+        return readAll(mSelectNamePage);
+    }
+
+    /** PET_ID query on a pet cache miss, returns the number of rows read */
+    int queryPet(long id) throws SQLException {
+        mSelectById.setLong(1, id);
+        return readAll(mSelectById);
+    }
+
+    /** PETS query of the whole catalog, returns the number of rows read */
+    int scanCatalog() throws SQLException {
+        return readAll(mSelectCatalog);
+    }
+
+    private void readChangedIds(long id) throws SQLException {
+        mSelectChangedIds.setLong(1, id);
+        readAll(mSelectChangedIds);
+    }
+
+    private static void bindPet(PreparedStatement statement, String name, String breed,
+                                int gender, int weight) throws SQLException {
+        statement.setString(1, name);
+        statement.setString(2, breed);
+        statement.setInt(3, gender);
+        statement.setInt(4, weight);
+    }
+
+    //reads every column of every row, like a cursor filling its window
+    private static int readAll(PreparedStatement statement) throws SQLException {
+        int rows = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            int columns = resultSet.getMetaData().getColumnCount();
+            while (resultSet.next()) {
+                for (int column = 1; column <= columns; column++) {
+                    resultSet.getObject(column);
+                }
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        mInsert.close();
+        mSelectChangedIds.close();
+        mUpdateById.close();
+        mDeleteById.close();
+        mSelectPage.close();
+        mSelectNamePage.close();
+        mSelectById.close();
+        mSelectCatalog.close();
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pages through the catalog on one connection while another keeps writing, like the list
+ * scrolling during an import, and checks that with the write-ahead log the readers never wait
+ * for the writer: the read latency under writes stays close to the idle one. This runs on
+ * sqlite-jdbc with the settings of {@link BenchmarkSchema}, that PetDbHelper really applies them
+ * on the device is checked by PetDbSettingsTest of the app.
+ */
+public class ConcurrentReadWriteTest {
+
+    private static final int PETS = 20000;
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGES = 2000;
+    //pets per write transaction, like a chunk of a bulk insert
+    private static final int WRITE_CHUNK = 200;
+
+    //how much slower the reads may get under writes, a single core box shares its cpu with
+    //the writer so some slowdown is expected, waiting for a commit is far above it
+    private static final double MEDIAN_SLOWDOWN = 4;
+    private static final double TAIL_SLOWDOWN = 10;
+    private static final double TAIL_FLOOR_MICROS = 20000;
+
+    private File mDatabaseFile;
+    private Connection mReadConnection;
+    private Connection mWriteConnection;
+
+    @Before
+    public void openDatabase() throws IOException, SQLException {
+        mDatabaseFile = File.createTempFile("shelter-concurrency", ".db");
+        mWriteConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile.getPath());
+        BenchmarkSchema.create(mWriteConnection);
+        insertPets(mWriteConnection, new PetStore(mWriteConnection),
+                new PetDatasetGenerator(PetDatasetGenerator.DEFAULT_SEED), PETS);
+        mReadConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile.getPath());
+    }
+
+    @After
+    public void deleteDatabase() throws SQLException {
+        mReadConnection.close();
+        mWriteConnection.close();
+        mDatabaseFile.delete();
+        new File(mDatabaseFile.getPath() + "-wal").delete();
+        new File(mDatabaseFile.getPath() + "-shm").delete();
+    }
+
+    @Test
+    public void readLatencyStaysFlatUnderWrites() throws Exception {
+        PetStore reader = new PetStore(mReadConnection);
+        //warms up the page cache and the statements
+        readPages(reader, PAGES);
+        LatencyStats idle = readPages(reader, PAGES);
+
+        final PetStore writer = new PetStore(mWriteConnection);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PetDatasetGenerator generator = new PetDatasetGenerator(PetDatasetGenerator.DEFAULT_SEED + 1);
+                try {
+                    while (!stop.get()) {
+                        insertPets(mWriteConnection, writer, generator, WRITE_CHUNK);
+                        writes.addAndGet(WRITE_CHUNK);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        }, "writer");
+        writeThread.start();
+        LatencyStats busy;
+        try {
+            //lets the writer get going before measuring
+            while (writes.get() == 0 && failure.get() == null) {
+                Thread.sleep(1);
+            }
+            busy = readPages(reader, PAGES);
+        } finally {
+            stop.set(true);
+            writeThread.join();
+        }
+
+        assertNull("the writer failed: " + failure.get(), failure.get());
+        assertTrue("the writer made no progress", writes.get() > WRITE_CHUNK);
+        String latencies = "idle p50 " + idle.percentileMicros(50) + " us, p99 "
+                + idle.percentileMicros(99) + " us; under " + writes.get() + " writes p50 "
+                + busy.percentileMicros(50) + " us, p99 " + busy.percentileMicros(99) + " us";
+        System.out.println(latencies);
+        assertTrue(latencies, busy.percentileMicros(50) <= MEDIAN_SLOWDOWN * idle.percentileMicros(50));
+        assertTrue(latencies, busy.percentileMicros(99)
+                <= Math.max(TAIL_SLOWDOWN * idle.percentileMicros(99), TAIL_FLOOR_MICROS));
+    }
+
+    //walks the catalog page by page from the start, wrapping around at the end
+    private static LatencyStats readPages(PetStore reader, int pages) throws SQLException {
+        LatencyStats stats = new LatencyStats();
+        long afterId = 0;
+        for (int i = 0; i < pages; i++) {
+            long start = System.nanoTime();
+            int rows = reader.queryPage(afterId, PAGE_SIZE);
+            stats.record(System.nanoTime() - start);
+            afterId = rows < PAGE_SIZE ? 0 : afterId + PAGE_SIZE;
+        }
+        return stats;
+    }
+
+    //count pets in one transaction
+    private static void insertPets(Connection connection, PetStore store, PetDatasetGenerator generator,
+                                   int count) throws SQLException {
+        PetRecord pet = new PetRecord();
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < count; i++) {
+                generator.next(pet);
+                store.insertPet(pet.getName(), pet.getBreed(), pet.getGender(), pet.getWeight());
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the plan SQLite picks for a query, for the tests checking that queries use an index.
+ */
+final class QueryPlans {
+
+    private QueryPlans() {
+    }
+
+    //the detail lines of EXPLAIN QUERY PLAN, one per line
+    static String explain(Connection connection, String sql, Object... args) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    plan.append(rows.getString("detail")).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    //true when the plan reads the index, covering or not
+    static boolean usesIndex(String plan, String index) {
+        return Pattern.compile("USING (COVERING )?INDEX " + Pattern.quote(index) + "\\b").matcher(plan).find();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades populated databases through the migration chain of {@link BenchmarkSchema}, the copy
+ * of PetDbHelper.MIGRATIONS the benchmark runs on, and checks that no pet is lost and that the
+ * lookups use the indexes the migrations add. It only covers that copy, the chain of the app is
+ * upgraded by PetDbMigrationTest, an instrumentation test of the app.
+ */
+public class SchemaMigrationTest {
+
+    private static final int PETS = 2000;
+
+    private File mDatabaseFile;
+    private Connection mConnection;
+
+    @Before
+    public void openDatabase() throws IOException, SQLException {
+        mDatabaseFile = File.createTempFile("shelter-migration", ".db");
+        mConnection = DriverManager.getConnection("jdbc:sqlite:" + mDatabaseFile.getPath());
+    }
+
+    @After
+    public void deleteDatabase() throws SQLException {
+        mConnection.close();
+        mDatabaseFile.delete();
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsEveryPet() throws SQLException {
+        createVersion1();
+        insertPets(PETS);
+        List<String> before = readPets();
+        long weightSum = queryLong("SELECT SUM(weight) FROM Pets");
+
+        BenchmarkSchema.migrate(mConnection, 1, BenchmarkSchema.VERSION);
+
+        assertEquals(before, readPets());
+        assertEquals(PETS, queryLong("SELECT COUNT(*) FROM Pets WHERE deleted=0"));
+        //the search index and the stats were filled from the existing pets
+        assertEquals(PETS, queryLong("SELECT COUNT(*) FROM PetsFts"));
+        assertEquals(PETS, queryLong("SELECT count FROM PetStats WHERE dimension='all'"));
+        assertEquals(weightSum, queryLong("SELECT weight_sum FROM PetStats WHERE dimension='all'"));
+    }
+
+    @Test
+    public void upgradeFromEveryVersionKeepsEveryPet() throws IOException, SQLException {
+        for (int version = 1; version < BenchmarkSchema.VERSION; version++) {
+            //a new database for every version
+            deleteDatabase();
+            openDatabase();
+            createVersion1();
+            BenchmarkSchema.migrate(mConnection, 1, version);
+            insertPets(PETS);
+            List<String> before = readPets();
+
+            BenchmarkSchema.migrate(mConnection, version, BenchmarkSchema.VERSION);
+
+            assertEquals("upgrade from version " + version, before, readPets());
+        }
+    }
+
+    @Test
+    public void searchIndexIsRebuiltWithPrefixIndexes() throws SQLException {
+        createVersion1();
+        BenchmarkSchema.migrate(mConnection, 1, 9);
+        insertPets(PETS);
+        execute("UPDATE Pets SET deleted=1 WHERE _id % 10 = 0");
+        long matches = queryLong("SELECT COUNT(*) FROM PetsFts WHERE PetsFts MATCH 'be*'");
+
+        BenchmarkSchema.migrate(mConnection, 9, BenchmarkSchema.VERSION);
+
+        assertTrue(queryString("SELECT sql FROM sqlite_master WHERE name='PetsFts'")
+                .contains("prefix=\"1,2,3\""));
+        //the tombstoned pets stay out of the rebuilt index
+        assertEquals(queryLong("SELECT COUNT(*) FROM Pets WHERE deleted=0"),
+                queryLong("SELECT COUNT(*) FROM PetsFts"));
+        assertEquals(matches, queryLong("SELECT COUNT(*) FROM PetsFts WHERE PetsFts MATCH 'be*'"));
+    }
+
+    @Test
+    public void upgradedDatabaseUsesTheIndexes() throws SQLException {
+        createVersion1();
+        insertPets(PETS);
+        BenchmarkSchema.migrate(mConnection, 1, BenchmarkSchema.VERSION);
+
+        assertUsesIndex("pets_name_idx", "SELECT _id,breed FROM Pets WHERE name=?", "Bella");
+        assertUsesIndex("pets_breed_weight_idx", "SELECT _id,name FROM Pets WHERE breed=?", "Beagle");
+        assertUsesIndex("pets_gender_weight_idx",
+                "SELECT _id,name FROM Pets WHERE gender=? AND weight>=? AND weight<=?", 1, 5, 20);
+        assertUsesIndex("pets_breed_weight_idx",
+                "SELECT MIN(weight) FROM Pets WHERE breed=? AND weight IS NOT NULL", "Beagle");
+    }
+
+    private void createVersion1() throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(BenchmarkSchema.CREATE_VERSION_1);
+        }
+    }
+
+    //generated pets, with some weights and breeds left empty like the old editor allowed
+    private void insertPets(int count) throws SQLException {
+        PetDatasetGenerator generator = new PetDatasetGenerator(PetDatasetGenerator.DEFAULT_SEED);
+        PetRecord pet = new PetRecord();
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO Pets (name,breed,gender,weight) VALUES (?,?,?,?)")) {
+            for (int i = 0; i < count; i++) {
+                generator.next(pet);
+                insert.setString(1, pet.getName());
+                insert.setString(2, i % 97 == 0 ? null : pet.getBreed());
+                insert.setInt(3, pet.getGender());
+                if (i % 50 == 0) {
+                    insert.setNull(4, java.sql.Types.INTEGER);
+                } else {
+                    insert.setInt(4, pet.getWeight());
+                }
+                insert.executeUpdate();
+            }
+            mConnection.commit();
+        } finally {
+            mConnection.setAutoCommit(true);
+        }
+    }
+
+    //every pet as one string of its version 1 columns, in _id order
+    private List<String> readPets() throws SQLException {
+        List<String> pets = new ArrayList<>();
+        try (Statement statement = mConnection.createStatement();
+             ResultSet rows = statement.executeQuery(
+                     "SELECT _id,name,breed,gender,weight FROM Pets ORDER BY _id")) {
+            while (rows.next()) {
+                pets.add(rows.getLong(1) + "|" + rows.getString(2) + "|" + rows.getString(3) + "|" +
+                        rows.getInt(4) + "|" + rows.getString(5));
+            }
+        }
+        return pets;
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            assertTrue(rows.next());
+            return rows.getLong(1);
+        }
+    }
+
+    private String queryString(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement();
+             ResultSet rows = statement.executeQuery(sql)) {
+            assertTrue(rows.next());
+            return rows.getString(1);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private void assertUsesIndex(String index, String sql, Object... args) throws SQLException {
+        String plan = QueryPlans.explain(mConnection, sql, args);
+        assertTrue(sql + " doesn't use " + index + ": " + plan, QueryPlans.usesIndex(plan, index));
+    }
+}